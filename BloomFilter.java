@@ -0,0 +1,302 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Scalable Bloom filter of 64-bit fingerprints that many threads can add to
+ * at once without locking.
+ *
+ * The filter starts with a single stage sized for the expected number of
+ * fingerprints. Whenever the newest stage is full, a stage twice as large is
+ * added with half the false positive rate of the one before it, so the filter
+ * keeps growing with the number of fingerprints while its overall false
+ * positive rate stays below the one asked for.
+ *
+ * Two threads adding the same fingerprint at the same moment may both be
+ * told it is new, since each sets its bits on its own. Callers that need
+ * exact answers for concurrent adds check a small exact set first.
+ * @author Benny Fung
+ */
+public class BloomFilter
+{
+	/** How much larger each stage is than the one before it. */
+	public static final int GROWTH = 2;
+
+	/** How much lower the false positive rate of each stage is than the one before it. */
+	public static final double TIGHTENING = 0.5;
+
+	/** Most bits of a single stage. */
+	private static final long MAX_BITS = (long) Integer.MAX_VALUE << 6;
+
+	/** Overall false positive rate asked for. */
+	private final double rate;
+
+	/** Stages of the filter, oldest first, replaced as a whole when one is added. */
+	private volatile Stage[] stages;
+
+	/**
+	 * Initializes an empty filter.
+	 *
+	 * @param expected
+	 * 			number of fingerprints the first stage is sized for
+	 * @param rate
+	 * 			overall false positive rate, between 0 and 1
+	 */
+	public BloomFilter(long expected, double rate)
+	{
+		if (!(rate > 0 && rate < 1))
+		{
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + rate);
+		}
+		this.rate = rate;
+		this.stages = new Stage[] { new Stage(Math.max(1, expected), rate * (1 - TIGHTENING)) };
+	}
+
+	/**
+	 * Adds a fingerprint to the filter.
+	 *
+	 * @param fingerprint
+	 * 			fingerprint to add
+	 * @return true if the fingerprint was not in the filter, or false if it was
+	 * 		(or seemed to be, with the false positive rate of the filter)
+	 */
+	public boolean add(long fingerprint)
+	{
+		Stage[] current = stages;
+		for (int i = 0; i < current.length - 1; i++)
+		{
+			if (current[i].contains(fingerprint))
+			{
+				return false;
+			}
+		}
+
+		Stage last = current[current.length - 1];
+		if (!last.add(fingerprint))
+		{
+			return false;
+		}
+		if (last.count.incrementAndGet() >= last.capacity)
+		{
+			grow(last);
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether a fingerprint may have been added to the filter.
+	 *
+	 * @param fingerprint
+	 * 			fingerprint to look for
+	 * @return false if the fingerprint was never added, or true if it probably was
+	 */
+	public boolean contains(long fingerprint)
+	{
+		for (Stage stage : stages)
+		{
+			if (stage.contains(fingerprint))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of fingerprints added.
+	 *
+	 * @return number of fingerprints found to be new
+	 */
+	public long size()
+	{
+		long size = 0;
+		for (Stage stage : stages)
+		{
+			size += stage.count.get();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the memory used by the bits of every stage.
+	 *
+	 * @return number of bytes
+	 */
+	public long bytes()
+	{
+		long bytes = 0;
+		for (Stage stage : stages)
+		{
+			bytes += (long) stage.bits.length() * Long.BYTES;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of stages.
+	 *
+	 * @return number of stages
+	 */
+	public int stages()
+	{
+		return stages.length;
+	}
+
+	/**
+	 * Returns the overall false positive rate asked for.
+	 *
+	 * @return false positive rate the filter stays below
+	 */
+	public double rate()
+	{
+		return rate;
+	}
+
+	/**
+	 * Estimates the current false positive rate from the number of
+	 * fingerprints in each stage: the chance that a new fingerprint is found
+	 * in at least one of them.
+	 *
+	 * @return estimated false positive rate
+	 */
+	public double falsePositiveRate()
+	{
+		double missed = 1;
+		for (Stage stage : stages)
+		{
+			missed *= 1 - stage.falsePositiveRate();
+		}
+		return 1 - missed;
+	}
+
+	/**
+	 * Adds a new stage after the full one, unless another thread did already.
+	 *
+	 * @param full
+	 * 			stage that is full
+	 */
+	private synchronized void grow(Stage full)
+	{
+		Stage[] current = stages;
+		if (current[current.length - 1] != full)
+		{
+			return;
+		}
+
+		Stage[] grown = new Stage[current.length + 1];
+		System.arraycopy(current, 0, grown, 0, current.length);
+		grown[current.length] = new Stage(full.capacity * GROWTH, full.rate * TIGHTENING);
+		stages = grown;
+	}
+
+	/**
+	 * Plain Bloom filter of a fixed size for one stage.
+	 */
+	private static class Stage
+	{
+		private final AtomicLongArray bits;
+		private final long size;
+		private final int hashes;
+		private final long capacity;
+		private final double rate;
+		private final AtomicLong count;
+
+		/**
+		 * Creates a stage with the optimal number of bits and hashes for its
+		 * capacity and false positive rate.
+		 *
+		 * @param capacity
+		 * 			number of fingerprints before the stage is full
+		 * @param rate
+		 * 			false positive rate of the stage once full
+		 */
+		private Stage(long capacity, double rate)
+		{
+			double ln2 = Math.log(2);
+			long wanted = (long) Math.ceil(-capacity * Math.log(rate) / (ln2 * ln2));
+			long words = (Math.min(Math.max(wanted, 64), MAX_BITS) + 63) >>> 6;
+
+			this.bits = new AtomicLongArray((int) words);
+			this.size = words << 6;
+			this.hashes = Math.max(1, (int) Math.round((double) size / capacity * ln2));
+			this.capacity = capacity;
+			this.rate = rate;
+			this.count = new AtomicLong();
+		}
+
+		/**
+		 * Sets the bits of a fingerprint.
+		 *
+		 * @param fingerprint
+		 * 			fingerprint to add
+		 * @return true if at least one of its bits was not set yet
+		 */
+		private boolean add(long fingerprint)
+		{
+			long second = second(fingerprint);
+			boolean added = false;
+			for (int i = 0; i < hashes; i++)
+			{
+				long bit = Math.floorMod(fingerprint + i * second, size);
+				int word = (int) (bit >>> 6);
+				long mask = 1L << bit;
+
+				long old = bits.get(word);
+				while ((old & mask) == 0)
+				{
+					if (bits.compareAndSet(word, old, old | mask))
+					{
+						added = true;
+						break;
+					}
+					old = bits.get(word);
+				}
+			}
+			return added;
+		}
+
+		/**
+		 * Tells whether every bit of a fingerprint is set.
+		 *
+		 * @param fingerprint
+		 * 			fingerprint to look for
+		 * @return true if the fingerprint may have been added
+		 */
+		private boolean contains(long fingerprint)
+		{
+			long second = second(fingerprint);
+			for (int i = 0; i < hashes; i++)
+			{
+				long bit = Math.floorMod(fingerprint + i * second, size);
+				if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Estimates the false positive rate of the stage from its number of
+		 * fingerprints.
+		 *
+		 * @return estimated false positive rate
+		 */
+		private double falsePositiveRate()
+		{
+			return Math.pow(1 - Math.exp(-(double) hashes * count.get() / size), hashes);
+		}
+
+		/**
+		 * Derives a second, odd hash from a fingerprint, so that the bits of a
+		 * fingerprint are spread by double hashing.
+		 *
+		 * @param fingerprint
+		 * 			fingerprint to hash
+		 * @return second hash of the fingerprint
+		 */
+		private static long second(long fingerprint)
+		{
+			return Long.rotateLeft(fingerprint * 0x9e3779b97f4a7c15L, 32) | 1;
+		}
+	}
+}
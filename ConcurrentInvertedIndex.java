@@ -0,0 +1,674 @@
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A thread-safe inverted index that does not use a global lock. Every word
+ * has its own append-only posting buffer, found through a concurrent hash
+ * map when adding and searching for exact words, and through a concurrent
+ * skip list of the same buffers for partial searches and sorted output.
+ * Threads adding different words never block each other, threads adding the
+ * same word only lock that word's buffer while appending, and searches never
+ * wait for threads that are adding to the index, since the document table
+ * does not lock readers either.
+ *
+ * Searches see every document whose postings were fully appended before the
+ * search reached that word. Position lists are expected to be added once per
+ * word and document, which is how the index builders and web crawler use it.
+ * Removing a document does not lock either; the postings of removed documents
+ * are reclaimed by {@link #compact()}.
+ * @author Benny Fung
+ */
+public class ConcurrentInvertedIndex extends ThreadedInvertedIndex
+{
+	/**
+	 * Stores a mapping of words to the posting buffers of the word.
+	 */
+	private final ConcurrentHashMap<String, PostingBuffer> index;
+
+	/**
+	 * Stores the same posting buffers sorted by word. A new word is added here
+	 * right after it is added to {@link #index}.
+	 */
+	private final ConcurrentSkipListMap<String, PostingBuffer> sorted;
+
+	/**
+	 * Number of deleted documents whose postings were reclaimed by the last compaction.
+	 */
+	private int purged;
+
+	/**
+	 * Initializes the index.
+	 */
+	public ConcurrentInvertedIndex()
+	{
+		this(new DocumentTable());
+	}
+
+	/**
+	 * Initializes the index using an existing document table.
+	 *
+	 * @param documents
+	 * 			document table to use
+	 */
+	public ConcurrentInvertedIndex(DocumentTable documents)
+	{
+		super(documents);
+		index = new ConcurrentHashMap<>();
+		sorted = new ConcurrentSkipListMap<>();
+		purged = 0;
+	}
+
+	/**
+	 * Adds the word and the paths as well as the position it was found to the index.
+	 *
+	 * @param word
+	 * 			takes in a word to add
+	 * @param path
+	 * 			takes in a path to add
+	 * @param position
+	 * 			takes in the position of the word and path to add
+	 */
+	@Override
+	public void add(String word, String path, int position)
+	{
+		add(word, documents().add(path), position);
+	}
+
+	/**
+	 * Adds the word and the id of the document as well as the position it was found to the index.
+	 *
+	 * @param word
+	 * 			takes in a word to add
+	 * @param document
+	 * 			takes in the id of the document
+	 * @param position
+	 * 			takes in the position of the word and document to add
+	 */
+	@Override
+	public void add(String word, int document, int position)
+	{
+		PositionList positions = new PositionList();
+		positions.add(position);
+		positions.seal();
+		append(word, buffer(word), document, positions.shared());
+	}
+
+	/**
+	 * Adds the array of words at once, assuming the first word in the array is
+	 * at position 1.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param path
+	 *            path of the document
+	 */
+	@Override
+	public void addAll(String[] words, Path path)
+	{
+		addAll(words, documents().add(path.toString()));
+	}
+
+	/**
+	 * Adds the array of words at once for the document id, assuming the first
+	 * word in the array is at position 1. The positions of every word are
+	 * collected and sealed before they are appended.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param document
+	 *            id of the document
+	 */
+	@Override
+	public void addAll(String[] words, int document)
+	{
+		HashMap<String, PositionList> lists = new HashMap<>();
+		int position = 1;
+		for (String word : words)
+		{
+			PositionList positions = lists.get(word);
+			if (positions == null)
+			{
+				positions = new PositionList();
+				lists.put(word, positions);
+			}
+			positions.add(position);
+			position++;
+		}
+
+		for (Map.Entry<String, PositionList> entry : lists.entrySet())
+		{
+			entry.getValue().seal();
+			append(entry.getKey(), buffer(entry.getKey()), document, entry.getValue().shared());
+		}
+	}
+
+	/**
+	 * Adds the words of cleaned text for the document id as they are parsed.
+	 * The positions of every word are collected and sealed in a local index
+	 * before they are appended.
+	 *
+	 * @param text
+	 *            text to parse and add
+	 * @param document
+	 *            id of the document
+	 */
+	@Override
+	public void addText(String text, int document)
+	{
+		InvertedIndex local = new InvertedIndex(documents());
+		local.addText(text, document);
+		addAll(local);
+	}
+
+	/**
+	 * Removes a document from the index without locking. Its id is marked as
+	 * deleted right away, and its postings are reclaimed by the next
+	 * {@link #compact()}.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @return true if the document was in the document table
+	 */
+	@Override
+	public boolean remove(String path)
+	{
+		return documents().remove(path) >= 0;
+	}
+
+	/**
+	 * Replaces the words of a document under a new id without locking. A
+	 * search running at the same time may see neither the old document nor
+	 * all of the new one.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @param words
+	 *            array of words to add
+	 */
+	@Override
+	public void replace(String path, String[] words)
+	{
+		documents().remove(path);
+		addAll(words, documents().add(path));
+	}
+
+	/**
+	 * Adds all of the postings of another index. The other index is meant to be
+	 * thrown away afterwards, so its position lists are sealed and shared.
+	 *
+	 * @param other
+	 * 			index to add
+	 */
+	@Override
+	public void addAll(InvertedIndex other)
+	{
+		int[] remap = null;
+		if (other.documents() != documents())
+		{
+			remap = other.remap(documents());
+		}
+
+		for (Map.Entry<String, PostingList> entry : other.livePostings())
+		{
+			PostingList postings = entry.getValue();
+			PostingBuffer buffer = buffer(entry.getKey());
+			for (int i = 0; i < postings.size(); i++)
+			{
+				PositionList positions = postings.positionsAt(i);
+				positions.seal();
+				buffer = append(entry.getKey(), buffer, remap == null ? postings.documentAt(i) : remap[postings.documentAt(i)], positions.shared());
+			}
+		}
+	}
+
+	/**
+	 * Returns the posting buffer of a word, creating it if needed.
+	 *
+	 * @param word
+	 * 			word to look up
+	 * @return posting buffer of the word
+	 */
+	private PostingBuffer buffer(String word)
+	{
+		PostingBuffer buffer = index.get(word);
+		if (buffer == null)
+		{
+			buffer = new PostingBuffer();
+			PostingBuffer existing = index.putIfAbsent(word, buffer);
+			if (existing != null)
+			{
+				buffer = existing;
+			}
+			else
+			{
+				sorted.put(word, buffer);
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Appends the position list of a document to the posting buffer of a
+	 * word. If compaction retired the buffer in the meantime, it is replaced
+	 * by a new one and the append is tried again, so no posting is lost.
+	 *
+	 * @param word
+	 * 			word of the buffer
+	 * @param buffer
+	 * 			posting buffer of the word
+	 * @param document
+	 * 			id of the document
+	 * @param positions
+	 * 			sealed position list of the document
+	 * @return posting buffer the position list was appended to
+	 */
+	private PostingBuffer append(String word, PostingBuffer buffer, int document, PositionList positions)
+	{
+		while (!buffer.append(document, positions))
+		{
+			index.remove(word, buffer);
+			sorted.remove(word, buffer);
+			buffer = buffer(word);
+		}
+		return buffer;
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for an exact match
+	 * @param words
+	 * 			each individual query
+	 * @return
+	 * 		returns a list of sorted exact search results
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words)
+	{
+		return exactSearch(words, 0);
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for an exact match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best exact search results
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		int documents = documents().size();
+		ScoreAccumulator accumulator = ScoreAccumulator.local();
+		accumulator.reset(documents);
+
+		for (String word : words)
+		{
+			PostingBuffer buffer = index.get(word);
+			if (buffer != null)
+			{
+				buffer.accumulate(accumulator, documents);
+			}
+		}
+		return accumulator.results(documents(), limit);
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for a partial match
+	 * @param words
+	 * 			each individual query
+	 * @return
+	 * 		returns a list of sorted partial search results
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(String words[])
+	{
+		return partialSearch(words, 0);
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for a partial match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best partial search results
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(String words[], int limit)
+	{
+		int documents = documents().size();
+		ScoreAccumulator accumulator = ScoreAccumulator.local();
+		accumulator.reset(documents);
+
+		for (String partialWord : words)
+		{
+			for (Map.Entry<String, PostingBuffer> entry : sorted.tailMap(partialWord).entrySet())
+			{
+				if (!entry.getKey().startsWith(partialWord))
+				{
+					break;
+				}
+				entry.getValue().accumulate(accumulator, documents);
+			}
+		}
+		return accumulator.results(documents(), limit);
+	}
+
+	/**
+	 * Returns a sorted snapshot of the words and postings of the index.
+	 *
+	 * @return words and postings of the index
+	 */
+	@Override
+	protected Iterable<Map.Entry<String, PostingList>> postings()
+	{
+		return () -> new Iterator<Map.Entry<String, PostingList>>()
+		{
+			private final Iterator<Map.Entry<String, PostingBuffer>> iterator = sorted.entrySet().iterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Map.Entry<String, PostingList> next()
+			{
+				Map.Entry<String, PostingBuffer> entry = iterator.next();
+				return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().snapshot());
+			}
+		};
+	}
+
+	/**
+	 * Reclaims the postings of documents deleted since the last call, and
+	 * drops the words left without postings. Words are not packed by this
+	 * index. A buffer left without postings is retired before its word is
+	 * dropped, so postings appended to it at the same time go to a new buffer
+	 * instead of being lost. Should be called once the index is built, before
+	 * searching.
+	 */
+	@Override
+	public void compact()
+	{
+		int deleted = documents().deleted();
+		if (deleted == purged)
+		{
+			return;
+		}
+
+		for (Map.Entry<String, PostingBuffer> entry : sorted.entrySet())
+		{
+			if (!entry.getValue().purge(documents()))
+			{
+				index.remove(entry.getKey(), entry.getValue());
+				sorted.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		purged = deleted;
+	}
+
+	/**
+	 * Returns the number of words stored in the index.
+	 *
+	 * @return number of words
+	 */
+	@Override
+	public int words()
+	{
+		return index.size();
+	}
+
+	/**
+	 * Tests whether the index contains the specified word in a document that
+	 * was not removed.
+	 *
+	 * @param word
+	 *            word to look for
+	 * @return true if the word is stored in the index
+	 */
+	@Override
+	public boolean contains(String word)
+	{
+		PostingBuffer buffer = index.get(word);
+		return buffer != null && buffer.hasLive(documents());
+	}
+
+	/**
+	 * Returns the number of words stored in the index.
+	 *
+	 * @return number of words
+	 */
+	@Override
+	public int numFlags()
+	{
+		return index.size();
+	}
+
+	/**
+	 * returns true if word and path is stored in the index
+	 * @param word
+	 * 			word to check
+	 * @param path
+	 * 			path to check
+	 * @return
+	 */
+	@Override
+	public boolean contains(String word, String path)
+	{
+		PostingBuffer buffer = index.get(word);
+		int document = documents().id(path);
+		return buffer != null && document >= 0 && buffer.snapshot().get(document) != null;
+	}
+
+	/**
+	 * returns true if index contains word, path, and position
+	 * @param word
+	 * 			word to check
+	 * @param path
+	 * 			path to check
+	 * @param position
+	 * @return
+	 */
+	@Override
+	public boolean contains(String word, String path, int position)
+	{
+		PostingBuffer buffer = index.get(word);
+		int document = documents().id(path);
+		PositionList positions = buffer == null || document < 0 ? null : buffer.snapshot().get(document);
+		return positions != null && positions.contains(position);
+	}
+
+	/**
+	 * Append-only list of the documents and sealed position lists of one word.
+	 * Appending is synchronized per buffer. Readers do not lock; they read the
+	 * current block and its size, which is only increased after the new entry
+	 * has been written. A buffer retired by {@link #purge(DocumentTable)}
+	 * refuses further appends.
+	 */
+	private static class PostingBuffer
+	{
+		private volatile Block block;
+		private boolean retired;
+
+		public PostingBuffer()
+		{
+			block = new Block(2);
+			retired = false;
+		}
+
+		/**
+		 * Appends the position list of a document, unless the buffer was retired.
+		 *
+		 * @param document
+		 * 			id of the document
+		 * @param positions
+		 * 			sealed position list of the document
+		 * @return false if the buffer was retired and nothing was appended
+		 */
+		public synchronized boolean append(int document, PositionList positions)
+		{
+			if (retired)
+			{
+				return false;
+			}
+
+			Block current = block;
+			int size = current.size;
+			if (size == current.documents.length)
+			{
+				Block larger = new Block(size * 2);
+				System.arraycopy(current.documents, 0, larger.documents, 0, size);
+				System.arraycopy(current.positions, 0, larger.positions, 0, size);
+				larger.size = size;
+				block = larger;
+				current = larger;
+			}
+
+			current.documents[size] = document;
+			current.positions[size] = positions;
+			current.size = size + 1;
+			return true;
+		}
+
+		/**
+		 * Replaces the block with a copy without the deleted documents.
+		 * Readers keep seeing the old block until the copy is complete. A
+		 * buffer left without documents is retired.
+		 *
+		 * @param table
+		 * 			document table the ids belong to
+		 * @return false if no documents are left and the buffer was retired
+		 */
+		public synchronized boolean purge(DocumentTable table)
+		{
+			Block current = block;
+			int size = current.size;
+			Block live = new Block(Math.max(2, size));
+			int kept = 0;
+			for (int i = 0; i < size; i++)
+			{
+				if (!table.isDeleted(current.documents[i]))
+				{
+					live.documents[kept] = current.documents[i];
+					live.positions[kept] = current.positions[i];
+					kept++;
+				}
+			}
+
+			if (kept < size)
+			{
+				live.size = kept;
+				block = live;
+			}
+			retired = kept == 0;
+			return !retired;
+		}
+
+		/**
+		 * Adds the frequency and first position of every document to the
+		 * accumulator, ignoring documents added after the search started.
+		 *
+		 * @param accumulator
+		 * 			accumulator of the search
+		 * @param documents
+		 * 			number of documents when the search started
+		 */
+		public void accumulate(ScoreAccumulator accumulator, int documents)
+		{
+			Block current = block;
+			int size = current.size;
+			for (int i = 0; i < size; i++)
+			{
+				int document = current.documents[i];
+				if (document < documents)
+				{
+					PositionList positions = current.positions[i];
+					accumulator.add(document, positions.size(), positions.first());
+				}
+			}
+		}
+
+		/**
+		 * Tells whether any appended document was not removed from its
+		 * document table.
+		 *
+		 * @param table
+		 * 			document table the ids belong to
+		 * @return true if at least one document is live
+		 */
+		public boolean hasLive(DocumentTable table)
+		{
+			Block current = block;
+			int size = current.size;
+			for (int i = 0; i < size; i++)
+			{
+				if (!table.isDeleted(current.documents[i]))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Copies the appended entries into a posting list sorted by document,
+		 * combining the positions of documents that were appended more than once.
+		 *
+		 * @return posting list of the word
+		 */
+		public PostingList snapshot()
+		{
+			Block current = block;
+			int size = current.size;
+			PostingList postings = new PostingList();
+			for (int i = 0; i < size; i++)
+			{
+				int document = current.documents[i];
+				PositionList existing = postings.get(document);
+				if (existing == null)
+				{
+					postings.put(document, current.positions[i]);
+				}
+				else
+				{
+					PositionList combined = new PositionList();
+					combined.addAll(existing);
+					combined.addAll(current.positions[i]);
+					combined.seal();
+					postings.put(document, combined);
+				}
+			}
+			return postings;
+		}
+	}
+
+	/**
+	 * Fixed capacity storage of a posting buffer. Entries below the size are
+	 * never changed once written.
+	 */
+	private static class Block
+	{
+		private final int[] documents;
+		private final PositionList[] positions;
+		private volatile int size;
+
+		public Block(int capacity)
+		{
+			documents = new int[capacity];
+			positions = new PositionList[capacity];
+			size = 0;
+		}
+	}
+}
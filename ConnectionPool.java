@@ -0,0 +1,320 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Keeps idle HTTP/1.1 keep-alive connections open so later requests to the
+ * same host and port can reuse them instead of opening a new socket. A
+ * connection is only used by one request at a time: it is taken out of the
+ * pool with {@link #acquire(String, int)} and handed back with
+ * {@link #release(Connection)} once its whole response has been read.
+ *
+ * Connections that sat idle for longer than {@link #IDLE_TIMEOUT} are closed
+ * rather than reused, since servers close idle connections on their own.
+ * Every release also closes the idle connections of any host that expired,
+ * and the oldest idle connections once the pool keeps more than
+ * {@link #MAX_TOTAL_IDLE} of them, so a crawl over many hosts does not keep
+ * a socket open for each of them. {@link #clear()} closes the rest once a
+ * crawl is over.
+ *
+ * Where supported, every response is acknowledged right away instead of
+ * after the usual delay. Otherwise a server that writes the headers and the
+ * body of a response separately, without disabling Nagle's algorithm, holds
+ * back the body until the delayed acknowledgement of the headers arrives,
+ * which only new connections avoid.
+ * @author Benny Fung
+ */
+public class ConnectionPool
+{
+	/** Most idle connections kept for each host. */
+	public static final int MAX_IDLE = 8;
+
+	/** Most idle connections kept for all hosts. */
+	public static final int MAX_TOTAL_IDLE = 64;
+
+	/** Milliseconds an idle connection is kept before it is closed. */
+	public static final long IDLE_TIMEOUT = 15000;
+
+	/** Size of the buffers of each connection. */
+	private static final int BUFFER_SIZE = 1 << 14;
+
+	/** Idle connections by host and port, most recently used first. */
+	private final ConcurrentHashMap<String, ConcurrentLinkedDeque<Connection>> idle;
+
+	/**
+	 * Idle connections of all hosts, least recently released first. A
+	 * connection taken out of the pool since stays here until it is skipped.
+	 */
+	private final ConcurrentLinkedQueue<Connection> released;
+
+	/** Number of idle connections in the pool. */
+	private final AtomicInteger count;
+
+	/**
+	 * Initializes an empty pool.
+	 */
+	public ConnectionPool()
+	{
+		idle = new ConcurrentHashMap<>();
+		released = new ConcurrentLinkedQueue<>();
+		count = new AtomicInteger();
+	}
+
+	/**
+	 * Returns an idle connection to the host, or opens a new one if there is
+	 * none that can still be used.
+	 *
+	 * @param host
+	 * 			host to connect to
+	 * @param port
+	 * 			port to connect to
+	 * @return connection only used by the caller until it is released
+	 * @throws IOException if a new connection cannot be opened
+	 */
+	public Connection acquire(String host, int port) throws IOException
+	{
+		String key = host + ":" + port;
+		ConcurrentLinkedDeque<Connection> connections = idle.get(key);
+		if (connections != null)
+		{
+			long now = System.currentTimeMillis();
+			Connection connection;
+			while ((connection = connections.pollFirst()) != null)
+			{
+				if (!take(connection))
+				{
+					continue;
+				}
+				if (now - connection.used <= IDLE_TIMEOUT && !connection.socket.isClosed())
+				{
+					connection.reused = true;
+					return connection;
+				}
+				connection.close();
+			}
+		}
+		return new Connection(key, new Socket(host, port));
+	}
+
+	/**
+	 * Hands a connection back to the pool after its whole response was read,
+	 * closing it if the pool already keeps enough idle connections to its host.
+	 * Then closes the idle connections that expired, and the oldest ones if
+	 * the pool keeps too many of them.
+	 *
+	 * @param connection
+	 * 			connection to keep open
+	 */
+	public void release(Connection connection)
+	{
+		ConcurrentLinkedDeque<Connection> connections = idle.computeIfAbsent(connection.key, key -> new ConcurrentLinkedDeque<>());
+		long now = System.currentTimeMillis();
+		connection.used = now;
+		if (connections.size() < MAX_IDLE)
+		{
+			connection.idle.set(true);
+			count.incrementAndGet();
+			connections.offerFirst(connection);
+			released.offer(connection);
+		}
+		else
+		{
+			connection.close();
+		}
+		evict(now);
+	}
+
+	/**
+	 * Closes every idle connection.
+	 */
+	public void clear()
+	{
+		Connection connection;
+		while ((connection = released.poll()) != null)
+		{
+			if (take(connection))
+			{
+				discard(connection);
+			}
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Returns the number of idle connections in the pool.
+	 *
+	 * @return number of idle connections
+	 */
+	public int size()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Closes the least recently released idle connections while they expired
+	 * or the pool keeps more than {@link #MAX_TOTAL_IDLE} of them.
+	 *
+	 * @param now
+	 * 			current time in milliseconds
+	 */
+	private void evict(long now)
+	{
+		Connection oldest;
+		while ((oldest = released.peek()) != null)
+		{
+			boolean waiting = oldest.idle.get();
+			if (waiting && now - oldest.used <= IDLE_TIMEOUT && count.get() <= MAX_TOTAL_IDLE)
+			{
+				return;
+			}
+
+			// another thread may have taken or evicted the connection meanwhile
+			if (released.remove(oldest) && waiting && take(oldest))
+			{
+				discard(oldest);
+			}
+		}
+	}
+
+	/**
+	 * Removes a connection taken out of the pool from the idle connections of
+	 * its host and closes it.
+	 *
+	 * @param connection
+	 * 			connection to close
+	 */
+	private void discard(Connection connection)
+	{
+		ConcurrentLinkedDeque<Connection> connections = idle.get(connection.key);
+		if (connections != null)
+		{
+			connections.remove(connection);
+		}
+		connection.close();
+	}
+
+	/**
+	 * Takes an idle connection out of the pool, unless another thread took it
+	 * first.
+	 *
+	 * @param connection
+	 * 			idle connection to take
+	 * @return true if the caller took the connection
+	 */
+	private boolean take(Connection connection)
+	{
+		if (connection.idle.compareAndSet(true, false))
+		{
+			count.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Open socket to a host along with its buffered streams.
+	 */
+	public static class Connection implements Closeable
+	{
+		private final String key;
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+		private final AtomicBoolean idle;
+		private volatile long used;
+		private boolean reused;
+		private boolean quickAck;
+
+		private Connection(String key, Socket socket) throws IOException
+		{
+			this.key = key;
+			this.socket = socket;
+			this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+			this.idle = new AtomicBoolean(false);
+			this.used = System.currentTimeMillis();
+			this.reused = false;
+			this.quickAck = socket.supportedOptions().contains(ExtendedSocketOptions.TCP_QUICKACK);
+			socket.setTcpNoDelay(true);
+		}
+
+		/**
+		 * Asks for the next response to be acknowledged right away. This is
+		 * called before reading each response, since the operating system may
+		 * go back to delaying acknowledgements after a while.
+		 */
+		public void acknowledgeQuickly()
+		{
+			if (!quickAck)
+			{
+				return;
+			}
+
+			try
+			{
+				socket.setOption(ExtendedSocketOptions.TCP_QUICKACK, true);
+			}
+			catch (IOException | UnsupportedOperationException e)
+			{
+				quickAck = false;
+			}
+		}
+
+		/**
+		 * Returns the stream the response is read from.
+		 *
+		 * @return buffered input stream of the socket
+		 */
+		public InputStream input()
+		{
+			return in;
+		}
+
+		/**
+		 * Returns the stream the request is written to.
+		 *
+		 * @return buffered output stream of the socket
+		 */
+		public OutputStream output()
+		{
+			return out;
+		}
+
+		/**
+		 * Tells whether the connection was used for an earlier request, in
+		 * which case the server may have closed it in the meantime.
+		 *
+		 * @return true if the connection came from the pool
+		 */
+		public boolean reused()
+		{
+			return reused;
+		}
+
+		/**
+		 * Closes the socket, ignoring any errors.
+		 */
+		@Override
+		public void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				// the connection is discarded either way
+			}
+		}
+	}
+}
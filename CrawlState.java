@@ -0,0 +1,278 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a crawl saw of every page it indexed, kept in a directory along with
+ * the index it built, so that the next crawl of the same pages only has to
+ * download and index the pages that changed.
+ *
+ * For every page the state keeps its ETag and Last-Modified headers, a
+ * fingerprint of its HTML and the links found on it. The next crawl sends the
+ * headers back as a conditional request. A page that is "304 Not Modified",
+ * or whose HTML has the same fingerprint as before, is unchanged: its saved
+ * links are followed without parsing it. The crawl starts from the saved
+ * index, see {@link #restore(InvertedIndex)}, so the words of unchanged pages
+ * are neither parsed nor copied. A changed page has its old document removed
+ * from the index before it is indexed again, and pages the crawl does not
+ * reach again are removed once it is done, see {@link #finish()}. If the
+ * state or the saved index cannot be read, every page is crawled as new.
+ *
+ * The state file starts with a magic number, the format version and the
+ * number of pages, followed by one record per page. The index is saved next
+ * to it as an {@link IndexFile}.
+ * @author Benny Fung
+ */
+public class CrawlState extends IndexState<CrawlState.Entry>
+{
+	/** Marks the start of a state file ("SECR"). */
+	public static final int MAGIC = 0x53454352;
+
+	/** Version of the file format. */
+	public static final int VERSION = 1;
+
+	/** Name of the state file in the directory. */
+	public static final String STATE_FILE = "crawl.state";
+
+	/** Name of the index file in the directory. */
+	public static final String INDEX_FILE = "crawl.index";
+
+	/**
+	 * Initializes the state of a crawl.
+	 *
+	 * @param directory
+	 * 			directory the state is kept in
+	 */
+	private CrawlState(Path directory)
+	{
+		super(directory, STATE_FILE, INDEX_FILE, MAGIC, VERSION);
+	}
+
+	/**
+	 * Loads the state of the last crawl from a directory. If the directory
+	 * holds no state or no index yet, or they cannot be read, every page is
+	 * crawled as new.
+	 *
+	 * @param directory
+	 * 			directory the state is kept in
+	 * @return state of the last crawl
+	 */
+	public static CrawlState load(Path directory)
+	{
+		CrawlState state = new CrawlState(directory);
+		state.read();
+		return state;
+	}
+
+	/**
+	 * Reads the pages of the last crawl.
+	 */
+	@Override
+	protected Map<String, Entry> readEntries(DataInputStream in) throws IOException
+	{
+		int count = in.readInt();
+		HashMap<String, Entry> previous = new HashMap<>(count * 2);
+		for (int i = 0; i < count; i++)
+		{
+			String url = in.readUTF();
+			String etag = in.readUTF();
+			String lastModified = in.readUTF();
+			long hash = in.readLong();
+			int links = in.readInt();
+			ArrayList<String> list = new ArrayList<>(links);
+			for (int j = 0; j < links; j++)
+			{
+				list.add(in.readUTF());
+			}
+
+			Entry entry = new Entry(etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, hash);
+			entry.links = list;
+			previous.put(url, entry);
+		}
+		return previous;
+	}
+
+	/**
+	 * Writes the pages of this crawl.
+	 */
+	@Override
+	protected void writeEntries(DataOutputStream out) throws IOException
+	{
+		out.writeInt(current.size());
+		for (Map.Entry<String, Entry> page : current.entrySet())
+		{
+			Entry entry = page.getValue();
+			List<String> links = entry.links == null ? Collections.emptyList() : entry.links;
+			out.writeUTF(page.getKey());
+			out.writeUTF(entry.etag == null ? "" : entry.etag);
+			out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+			out.writeLong(entry.hash);
+			out.writeInt(links.size());
+			for (String link : links)
+			{
+				out.writeUTF(link);
+			}
+		}
+	}
+
+	/**
+	 * Returns the headers of a conditional request for a page, which ask the
+	 * server to leave out the page if it did not change since the last crawl.
+	 *
+	 * @param url
+	 * 			page to request
+	 * @return request headers by name, empty if the last crawl did not see the page
+	 */
+	public Map<String, String> request(String url)
+	{
+		Entry entry = previous.get(url);
+		if (entry == null)
+		{
+			return Collections.emptyMap();
+		}
+
+		Map<String, String> headers = new LinkedHashMap<>();
+		if (entry.etag != null)
+		{
+			headers.put("If-None-Match", entry.etag);
+		}
+		if (entry.lastModified != null)
+		{
+			headers.put("If-Modified-Since", entry.lastModified);
+		}
+		return headers;
+	}
+
+	/**
+	 * Records a fetched page and tells whether it changed since the last
+	 * crawl. The old document of a changed page is removed from the index, so
+	 * that indexing the page again replaces it. The links of a changed or new
+	 * page have to be set on its entry once they are found.
+	 *
+	 * @param url
+	 * 			page that was fetched
+	 * @param response
+	 * 			response headers, including the "Status"
+	 * @param html
+	 * 			HTML of the page, or null if the response had none
+	 * @return entry of the page, or null if the page has nothing to index
+	 */
+	public Entry fetched(String url, Map<String, String> response, String html)
+	{
+		Entry last = previous.get(url);
+		String status = response.get("Status");
+		String etag = LinkParser.header(response, "ETag");
+		String lastModified = LinkParser.header(response, "Last-Modified");
+
+		if (last != null && status != null && status.startsWith("304"))
+		{
+			Entry entry = new Entry(etag != null ? etag : last.etag, lastModified != null ? lastModified : last.lastModified, last.hash);
+			return keep(url, entry, last, false);
+		}
+		if (html == null)
+		{
+			return null;
+		}
+
+		Entry entry = new Entry(etag, lastModified, URLFrontier.fingerprint(html));
+		if (last != null && last.hash == entry.hash)
+		{
+			return keep(url, entry, last, true);
+		}
+		replace(url, entry, last != null);
+		return entry;
+	}
+
+	/**
+	 * Records a page that did not change since the last crawl, which keeps
+	 * the links found on it then.
+	 *
+	 * @param url
+	 * 			page that was fetched
+	 * @param entry
+	 * 			entry of the page
+	 * @param last
+	 * 			entry of the page in the last crawl
+	 * @param read
+	 * 			true if the HTML had to be compared to tell it did not change
+	 * @return entry of the page
+	 */
+	private Entry keep(String url, Entry entry, Entry last, boolean read)
+	{
+		entry.links = last.links;
+		entry.unchanged = true;
+		keep(url, entry, read);
+		return entry;
+	}
+
+	/**
+	 * Describes how many pages changed since the last crawl, for the crawl
+	 * statistics.
+	 *
+	 * @return unchanged, changed and new pages as a line of text
+	 */
+	public String stats()
+	{
+		return stats("recrawl", "not modified", "dropped");
+	}
+
+	/**
+	 * What a crawl saw of a page: its validators, the fingerprint of its HTML
+	 * and its links.
+	 */
+	public static class Entry
+	{
+		private final String etag;
+		private final String lastModified;
+		private final long hash;
+		private List<String> links;
+		private boolean unchanged;
+
+		private Entry(String etag, String lastModified, long hash)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.links = null;
+			this.unchanged = false;
+		}
+
+		/**
+		 * Tells whether the page did not change since the last crawl.
+		 *
+		 * @return true if the words of the page are already in the index
+		 */
+		public boolean unchanged()
+		{
+			return unchanged;
+		}
+
+		/**
+		 * Returns the links found on the page.
+		 *
+		 * @return links of the page, or null if they were not set yet
+		 */
+		public List<String> links()
+		{
+			return links;
+		}
+
+		/**
+		 * Sets the links found on a changed or new page.
+		 *
+		 * @param links
+		 * 			links of the page
+		 */
+		public void links(List<String> links)
+		{
+			this.links = links;
+		}
+	}
+}
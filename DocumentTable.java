@@ -0,0 +1,217 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Assigns dense int ids to the paths (or URLs) of indexed documents, so the
+ * index only has to store each path once. Ids are handed out in the order the
+ * documents are added, starting at 0. Safe to share between threads.
+ * Looking up ids and paths never locks, so searches do not wait for
+ * documents being added; only adding a new path or removing one is
+ * synchronized, and only with other threads doing the same.
+ *
+ * Removing a document only marks its id as deleted in a bitset of live
+ * documents, so every index sharing the table stops returning it at once,
+ * and its postings are reclaimed later when the indexes are compacted. The
+ * path of a removed document gets a new id if it is added again, so the
+ * postings of the old and new document are never mixed up. Checking whether
+ * an id was deleted does not lock either.
+ * @author Benny Fung
+ */
+public class DocumentTable
+{
+	private final ConcurrentHashMap<String, Integer> ids;
+
+	/** Path of every id, replaced by a copy twice as large when full. */
+	private volatile String[] paths;
+
+	/** Number of ids handed out, only written after the path of the last one is stored. */
+	private volatile int size;
+
+	/** Bit for every id that was deleted, replaced by a copy twice as large as ids grow. */
+	private volatile AtomicLongArray deleted;
+
+	/** Number of ids deleted. */
+	private volatile int removed;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable()
+	{
+		ids = new ConcurrentHashMap<>();
+		paths = new String[16];
+		size = 0;
+		deleted = new AtomicLongArray(0);
+		removed = 0;
+	}
+
+	/**
+	 * Returns the id of the path, assigning the next id if the path has not
+	 * been seen before.
+	 *
+	 * @param path
+	 * 			path or URL of the document
+	 * @return id of the document
+	 */
+	public int add(String path)
+	{
+		Integer id = ids.get(path);
+		return id != null ? id : assign(path);
+	}
+
+	/**
+	 * Assigns the next id to a path unless another thread just did. The path
+	 * is stored before the size grows, and the size grows before the id can
+	 * be found, so a reader that has an id always finds its path.
+	 *
+	 * @param path
+	 * 			path or URL of the document
+	 * @return id of the document
+	 */
+	private synchronized int assign(String path)
+	{
+		Integer id = ids.get(path);
+		if (id == null)
+		{
+			id = size;
+			String[] stored = paths;
+			if (id == stored.length)
+			{
+				stored = Arrays.copyOf(stored, id * 2);
+			}
+			stored[id] = path;
+			paths = stored;
+			size = id + 1;
+			ids.put(path, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Removes the document of a path by marking its id as deleted. The path
+	 * is no longer found by {@link #id(String)}, and gets a new id if it is
+	 * added again.
+	 *
+	 * @param path
+	 * 			path or URL of the document
+	 * @return id the document had, or -1 if the path has not been added
+	 */
+	public synchronized int remove(String path)
+	{
+		Integer id = ids.remove(path);
+		if (id == null)
+		{
+			return -1;
+		}
+
+		int word = id >>> 6;
+		AtomicLongArray bits = deleted;
+		if (word >= bits.length())
+		{
+			// at least doubles, so deletes interleaved with adds only copy now and then
+			int length = Math.max(bits.length() * 2, (size + 63) >>> 6);
+			AtomicLongArray larger = new AtomicLongArray(Math.max(word + 1, length));
+			for (int i = 0; i < bits.length(); i++)
+			{
+				larger.set(i, bits.get(i));
+			}
+			bits = larger;
+			deleted = larger;
+		}
+		bits.set(word, bits.get(word) | 1L << id);
+		removed++;
+		return id;
+	}
+
+	/**
+	 * Tells whether the document of an id was removed.
+	 *
+	 * @param id
+	 * 			id of the document
+	 * @return true if the document was removed
+	 */
+	public boolean isDeleted(int id)
+	{
+		AtomicLongArray bits = deleted;
+		int word = id >>> 6;
+		return word < bits.length() && (bits.get(word) & 1L << id) != 0;
+	}
+
+	/**
+	 * Returns the number of documents removed so far, which only grows. An
+	 * index that reclaimed the postings of this many deleted documents has
+	 * nothing left to reclaim.
+	 *
+	 * @return number of removed documents
+	 */
+	public int deleted()
+	{
+		return removed;
+	}
+
+	/**
+	 * Returns the id of the path.
+	 *
+	 * @param path
+	 * 			path or URL of the document
+	 * @return id of the document, or -1 if the path has not been added
+	 */
+	public int id(String path)
+	{
+		Integer id = ids.get(path);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the path stored for the id.
+	 *
+	 * @param id
+	 * 			id of the document
+	 * @return path or URL of the document
+	 */
+	public String path(int id)
+	{
+		if (id < 0 || id >= size)
+		{
+			throw new IndexOutOfBoundsException("No document with id " + id);
+		}
+		return paths[id];
+	}
+
+	/**
+	 * Returns the number of ids handed out, including the ids of removed
+	 * documents.
+	 *
+	 * @return number of documents
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the rank of every document when sorted by path, indexed by id.
+	 * Used to output documents in the same order as the paths would sort.
+	 *
+	 * @return array where the value at each id is the rank of that document
+	 */
+	public int[] ranks()
+	{
+		int count = size;
+		String[] stored = paths;
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> stored[a].compareTo(stored[b]));
+
+		int[] ranks = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			ranks[order[i]] = i;
+		}
+		return ranks;
+	}
+}
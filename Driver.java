@@ -20,6 +20,7 @@ public class Driver
 		WorkQueue queue = null;
 		int threads;
 		int total;
+		int top = Math.max(0, argument.getInteger("-top", 0));
 		
 		try 
 		{
@@ -49,18 +50,24 @@ public class Driver
 				
 		if (argument.hasFlag("-threads") && argument.hasValue("-threads"))
 		{
-			queue = new WorkQueue(threads);
-			ThreadedInvertedIndex threadSafeIndex = new ThreadedInvertedIndex();
+			queue = workQueue(argument, threads);
+			ThreadedInvertedIndex threadSafeIndex = threadedIndex(argument, queue);
 			invertedIndex = threadSafeIndex;
 			queryHelper = new ThreadedQueryHelper(threadSafeIndex, queue);
 						
 			if (argument.hasFlag("-path") && argument.hasValue("-path"))
 			{
 				ThreadedIndexBuilder builder = new ThreadedIndexBuilder(threadSafeIndex, queue);
+				IndexManifest manifest = manifest(argument);
+				builder.setManifest(manifest);
+				if (argument.hasFlag("-batch"))
+				{
+					builder.setBatchSize(argument.getInteger("-batch", ThreadedIndexBuilder.DEFAULT_BATCH));
+				}
 				try 
 				{
 					builder.traverse(Paths.get(argument.getValue("-path")), threadSafeIndex);
-					
+					saveManifest(argument, manifest, threadSafeIndex);
 				}
 				catch (IOException e)
 				{
@@ -77,9 +84,18 @@ public class Driver
 			
 			if (argument.hasFlag("-path") && argument.hasValue("-path"))
 			{	
+				IndexManifest manifest = manifest(argument);
 				try 
 				{
-					InvertedIndexBuilderHTML.traverseDirectory(Paths.get(argument.getValue("-path")), invertedIndex);
+					if (manifest == null)
+					{
+						InvertedIndexBuilderHTML.traverseDirectory(Paths.get(argument.getValue("-path")), invertedIndex);
+					}
+					else
+					{
+						InvertedIndexBuilderHTML.traverseDirectory(Paths.get(argument.getValue("-path")), invertedIndex, manifest);
+						saveManifest(argument, manifest, invertedIndex);
+					}
 				}
 				
 				catch (IOException e)
@@ -91,9 +107,21 @@ public class Driver
 		
 		if (argument.hasFlag("-url") && argument.hasValue("-url"))
 		{
-			queue = new WorkQueue();
-			ThreadedInvertedIndex threadedIndex = new ThreadedInvertedIndex();
-			WebCrawler crawler = new WebCrawler(threadedIndex, queue);
+			queue = workQueue(argument, WorkQueue.DEFAULT);
+			ThreadedInvertedIndex threadedIndex = threadedIndex(argument, queue);
+			WebCrawler crawler = new WebCrawler(threadedIndex, queue, argument.getInteger("-fetchers", 0), argument.getInteger("-perhost", WebCrawler.PER_HOST));
+			crawler.setStageThreads(argument.getInteger("-parsers", 2), argument.getInteger("-tokenizers", 2), argument.getInteger("-indexers", 1));
+			crawler.setDelay(argument.getInteger("-delay", 0));
+			if (argument.hasFlag("-bloom"))
+			{
+				crawler.setSeenFilter(argument.getInteger("-bloom", total), argument.getDouble("-fpp", 0.01));
+			}
+			CrawlState state = null;
+			if (argument.hasFlag("-recrawl") && argument.hasValue("-recrawl"))
+			{
+				state = CrawlState.load(Paths.get(argument.getValue("-recrawl")));
+				crawler.setState(state);
+			}
 			invertedIndex = threadedIndex;
 			queryHelper = new QueryHelper(invertedIndex);
 
@@ -101,6 +129,21 @@ public class Driver
 			{
 				URL urlFlag = new URL(argument.getValue("-url"));
 				crawler.crawler(urlFlag, total);
+				if (state != null)
+				{
+					try
+					{
+						state.save(threadedIndex);
+					}
+					catch (IOException e)
+					{
+						System.out.println("Unable to save crawl state to the path" + argument.getString("-recrawl"));
+					}
+				}
+				if (argument.hasFlag("-stats"))
+				{
+					System.out.print(crawler.stats());
+				}
 			} 
 			catch (MalformedURLException e) 
 			{
@@ -108,11 +151,37 @@ public class Driver
 			}	
 		}
 		
+		if (argument.hasFlag("-load") && argument.hasValue("-load"))
+		{
+			try
+			{
+				invertedIndex.load(Paths.get(argument.getValue("-load")));
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to load index from the path" + argument.getString("-load"));
+			}
+		}
+		
+		invertedIndex.compact();
+		
+		if (argument.hasFlag("-save") && argument.hasValue("-save"))
+		{
+			try
+			{
+				invertedIndex.save(Paths.get(argument.getValue("-save")));
+			}
+			catch (IOException e)
+			{
+				System.out.println("Unable to save index to the path" + argument.getString("-save"));
+			}
+		}
+		
 		if (argument.hasFlag("-query") && argument.hasValue("-query"))
 		{
 			try
 			{
-				queryHelper.parseQuery(Paths.get(argument.getValue("-query")), argument.hasFlag("-exact"));
+				queryHelper.parseQuery(Paths.get(argument.getValue("-query")), argument.hasFlag("-exact"), top);
 			}
 			catch(IOException e)
 			{
@@ -125,7 +194,7 @@ public class Driver
 		{
 			try
 			{
-				invertedIndex.writeToJSON(Paths.get(output));
+				invertedIndex.writeToJSON(Paths.get(output), queue);
 			}
 			catch (IOException e)
 			{
@@ -151,4 +220,94 @@ public class Driver
 			queue.shutdown();
 		}
 	}
+	
+	/**
+	 * Creates the work queue used to build the index or crawl.
+	 * @param argument
+	 * 			parsed arguments
+	 * @param threads
+	 * 			number of worker threads
+	 * @return
+	 * 		a work-stealing queue if -stealing is given, or a work queue otherwise
+	 */
+	private static WorkQueue workQueue(ArgumentMap argument, int threads)
+	{
+		if (argument.hasFlag("-stealing"))
+		{
+			return new ForkJoinWorkQueue(threads);
+		}
+		return new WorkQueue(threads);
+	}
+	
+	/**
+	 * Loads the manifest of the last build from the directory given by
+	 * -manifest, so that only added and changed files are parsed.
+	 * @param argument
+	 * 			parsed arguments
+	 * @return
+	 * 		the manifest, or null if -manifest is not given
+	 */
+	private static IndexManifest manifest(ArgumentMap argument)
+	{
+		if (!argument.hasFlag("-manifest") || !argument.hasValue("-manifest"))
+		{
+			return null;
+		}
+		
+		return IndexManifest.load(Paths.get(argument.getValue("-manifest")));
+	}
+	
+	/**
+	 * Saves the manifest of a build along with its index, and prints what
+	 * changed if -stats is given.
+	 * @param argument
+	 * 			parsed arguments
+	 * @param manifest
+	 * 			manifest of the build, or null
+	 * @param index
+	 * 			index built
+	 */
+	private static void saveManifest(ArgumentMap argument, IndexManifest manifest, InvertedIndex index)
+	{
+		if (manifest == null)
+		{
+			return;
+		}
+		
+		if (argument.hasFlag("-stats"))
+		{
+			System.out.println(manifest.stats());
+		}
+		try
+		{
+			manifest.save(index);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Unable to save manifest to the path" + argument.getString("-manifest"));
+		}
+	}
+	
+	/**
+	 * Creates the thread-safe index selected by the flags.
+	 * @param argument
+	 * 			parsed arguments
+	 * @param queue
+	 * 			work queue of the index builder or web crawler
+	 * @return
+	 * 		a segmented index if -segments is given, a lock-free index if
+	 * 		-concurrent is given, or the locked index otherwise
+	 */
+	private static ThreadedInvertedIndex threadedIndex(ArgumentMap argument, WorkQueue queue)
+	{
+		if (argument.hasFlag("-segments"))
+		{
+			return new SegmentedInvertedIndex(queue);
+		}
+		else if (argument.hasFlag("-concurrent"))
+		{
+			return new ConcurrentInvertedIndex();
+		}
+		return new ThreadedInvertedIndex();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A work queue backed by a {@link ForkJoinPool}, so every worker thread has
+ * its own deque of tasks and idle workers steal from busy ones. Work added by
+ * a worker goes onto that worker's own deque, so the many small tasks added
+ * while building an index or crawling do not all contend on one monitor, and
+ * adding work only wakes a worker if one is idle.
+ *
+ * The pending work is counted with an atomic counter, and the monitor used by
+ * {@link #finish()} is only entered when the count drops to zero.
+ * @author Benny Fung
+ */
+public class ForkJoinWorkQueue extends WorkQueue
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	/** Pool running the work. */
+	private final ForkJoinPool pool;
+
+	/** Number of tasks added but not finished yet. */
+	private final AtomicInteger pending;
+
+	/** Notified when there is no more pending work. */
+	private final Object finished;
+
+	/** Used to signal the queue should be shutdown. */
+	private volatile boolean shutdown;
+
+	/**
+	 * Starts a work queue with the default number of threads.
+	 *
+	 * @see #ForkJoinWorkQueue(int)
+	 */
+	public ForkJoinWorkQueue()
+	{
+		this(DEFAULT);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads. The pool runs
+	 * tasks that are never joined in first-in first-out order, like the
+	 * {@link WorkQueue}.
+	 *
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public ForkJoinWorkQueue(int threads)
+	{
+		super(threads, false);
+		this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		this.pending = new AtomicInteger();
+		this.finished = new Object();
+		this.shutdown = false;
+	}
+
+	/**
+	 * Adds a work request to the queue. Work added from one of the worker
+	 * threads is pushed onto its own deque.
+	 *
+	 * @param r
+	 *            work request (in the form of a {@link Runnable} object)
+	 */
+	@Override
+	public void execute(Runnable r)
+	{
+		pending.incrementAndGet();
+		ForkJoinTask<?> task = ForkJoinTask.adapt(new Task(r));
+
+		Thread thread = Thread.currentThread();
+		if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool)
+		{
+			task.fork();
+			return;
+		}
+
+		try
+		{
+			pool.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			logger.debug("Work queue is shut down: " + e);
+			decreasePending();
+		}
+	}
+
+	/**
+	 * Indicates that we now have one less "pending" work, and will notify
+	 * any waiting threads if we no longer have any more pending work left.
+	 */
+	private void decreasePending()
+	{
+		if (pending.decrementAndGet() <= 0)
+		{
+			synchronized (finished)
+			{
+				finished.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits for all pending work to be finished.
+	 */
+	@Override
+	public void finish()
+	{
+		try
+		{
+			synchronized (finished)
+			{
+				while (pending.get() > 0)
+				{
+					finished.wait();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			logger.debug("Finish interrupted" + e);
+		}
+	}
+
+	/**
+	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
+	 * but threads in-progress will not be interrupted.
+	 */
+	@Override
+	public void shutdown()
+	{
+		shutdown = true;
+		pool.shutdown();
+	}
+
+	/**
+	 * Runs a work request unless the queue was shut down, and counts it as
+	 * finished afterwards.
+	 */
+	private class Task implements Runnable
+	{
+		private final Runnable r;
+
+		public Task(Runnable r)
+		{
+			this.r = r;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				if (!shutdown)
+				{
+					r.run();
+				}
+			}
+			catch (RuntimeException ex)
+			{
+				logger.debug("Work queue encountered a RunTimeException");
+			}
+			finally
+			{
+				decreasePending();
+			}
+		}
+	}
+}
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
 
 
 /**
@@ -80,24 +83,38 @@ public class HTMLCleaner
 	}
 	
 	/**
-	 * Removes all HTML (including any CSS and JavaScript).
+	 * Removes all HTML (including any CSS and JavaScript). Gives the same
+	 * result as removing comments, the head, style and script elements, tags
+	 * and entities with the methods above, in that order, but does it in a
+	 * single pass.
 	 *
 	 * @param html
 	 *            text including HTML to remove
 	 * @return text without any HTML, CSS, or JavaScript
+	 *
+	 * @see HTMLScanner
 	 */
 	
 	public static String stripHTML(String html)
 	{
-		html = stripComments(html);
-		
-		html = stripElement(html, "head");
-		html = stripElement(html, "style");
-		html = stripElement(html, "script");
-
-		html = stripTags(html);
-		html = stripEntities(html);
-
-		return html;
+		return HTMLScanner.stripHTML(html);
+	}
+	
+	/**
+	 * Removes all HTML (including any CSS and JavaScript) from a UTF-8 file,
+	 * giving the same result as joining its lines with spaces and calling
+	 * {@link #stripHTML(String)}. The file is decoded chunk by chunk into a
+	 * reusable buffer instead of being read into a list of lines.
+	 *
+	 * @param path
+	 *            file including HTML to remove
+	 * @return text without any HTML, CSS, or JavaScript
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 *
+	 * @see HTMLScanner
+	 */
+	public static String stripHTML(Path path) throws IOException
+	{
+		return HTMLScanner.stripHTML(path);
 	}
 }
\ No newline at end of file
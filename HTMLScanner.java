@@ -0,0 +1,632 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Removes HTML from text in a single sweep, giving the same result as
+ * {@link HTMLCleaner#stripHTML(String)} without running six regular
+ * expressions over copies of the whole page.
+ *
+ * The regular expressions remove comments, then the head, style and script
+ * elements, then any remaining tags, and finally entities, each replaced by a
+ * single space. The scanner looks for all of these at every '&lt;' in one pass.
+ * Whenever it searches ahead for the end of something, it skips over the
+ * constructs an earlier expression would already have removed, so a
+ * "&lt;/script&gt;" inside a comment does not end a script element and a "&gt;"
+ * inside a comment does not end a tag. Entities are removed from the output as
+ * it is written.
+ *
+ * Files can be scanned without reading them into a list of lines and joining
+ * them first. They are read through a small reusable direct buffer and decoded
+ * chunk by chunk into the scanner's own buffer, with every line terminator
+ * replaced by a space as joining the lines would.
+ * @author Benny Fung
+ */
+public class HTMLScanner
+{
+	/** Layers in the order the regular expressions are applied. */
+	private static final int COMMENT = 0;
+	private static final int HEAD = 1;
+	private static final int STYLE = 2;
+	private static final int SCRIPT = 3;
+	private static final int TAG = 4;
+
+	/** Names of the removed elements, indexed by layer. */
+	private static final char[][] NAMES = { null, "head".toCharArray(), "style".toCharArray(), "script".toCharArray() };
+
+	/** Size of the buffers used to read and decode files. */
+	private static final int READ_SIZE = 1 << 16;
+
+	/** Largest text and output buffers kept for the next call, in characters. */
+	private static final int RETAIN_SIZE = 1 << 20;
+
+	/** Scanners reused by each thread. */
+	private static final ThreadLocal<HTMLScanner> scanners = ThreadLocal.withInitial(HTMLScanner::new);
+
+	private char[] html;
+	private int length;
+
+	private char[] output;
+	private int size;
+
+	/** Output index entities may start at, after the last removed entity. */
+	private int barrier;
+
+	/**
+	 * Position from which each layer is known to have no more matches, since
+	 * the end of the text was reached looking for one.
+	 */
+	private final int[] exhausted;
+
+	/** Buffers and decoder used to read files, created on first use. */
+	private ByteBuffer bytes;
+	private CharBuffer chars;
+	private CharsetDecoder decoder;
+
+	/** Whether the last character read replaced a line terminator. */
+	private boolean terminator;
+
+	/** Whether the last character read was a carriage return. */
+	private boolean carriage;
+
+	/**
+	 * Initializes a scanner with empty buffers.
+	 */
+	public HTMLScanner()
+	{
+		html = new char[0];
+		output = new char[0];
+		exhausted = new int[TAG + 1];
+	}
+
+	/**
+	 * Removes all HTML (including any CSS and JavaScript) using the scanner of
+	 * the current thread.
+	 *
+	 * @param html
+	 *            text including HTML to remove
+	 * @return text without any HTML, CSS, or JavaScript
+	 */
+	public static String stripHTML(String html)
+	{
+		return scanners.get().strip(html);
+	}
+
+	/**
+	 * Removes all HTML (including any CSS and JavaScript) from a UTF-8 file
+	 * using the scanner of the current thread. The text is the same as joining
+	 * the lines of the file with spaces.
+	 *
+	 * @param path
+	 *            file including HTML to remove
+	 * @return text without any HTML, CSS, or JavaScript
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 */
+	public static String stripHTML(Path path) throws IOException
+	{
+		return scanners.get().strip(path);
+	}
+
+	/**
+	 * Removes all HTML (including any CSS and JavaScript). The buffers of the
+	 * scanner are reused by the next call, unless a large text grew them past
+	 * what is worth keeping.
+	 *
+	 * @param text
+	 *            text including HTML to remove
+	 * @return text without any HTML, CSS, or JavaScript
+	 */
+	public String strip(String text)
+	{
+		try
+		{
+			length = 0;
+			reserve(text.length());
+			length = text.length();
+			text.getChars(0, length, html, 0);
+			return scan();
+		}
+		finally
+		{
+			release();
+		}
+	}
+
+	/**
+	 * Removes all HTML (including any CSS and JavaScript) from a UTF-8 file.
+	 * The buffers of the scanner are reused by the next call, unless a large
+	 * file grew them past what is worth keeping.
+	 *
+	 * @param path
+	 *            file including HTML to remove
+	 * @return text without any HTML, CSS, or JavaScript
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 */
+	public String strip(Path path) throws IOException
+	{
+		try
+		{
+			read(path);
+			return scan();
+		}
+		finally
+		{
+			release();
+		}
+	}
+
+	/**
+	 * Reads and decodes a file into the text buffer, replacing each line
+	 * terminator except a final one with a space.
+	 *
+	 * @param path
+	 *            file to read
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 */
+	private void read(Path path) throws IOException
+	{
+		if (decoder == null)
+		{
+			bytes = ByteBuffer.allocateDirect(READ_SIZE);
+			chars = CharBuffer.allocate(READ_SIZE);
+			decoder = StandardCharsets.UTF_8.newDecoder();
+		}
+		bytes.clear();
+		chars.clear();
+		decoder.reset();
+
+		length = 0;
+		terminator = false;
+		carriage = false;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			reserve((int) Math.min(channel.size(), Integer.MAX_VALUE - 8));
+
+			boolean end = false;
+			while (!end)
+			{
+				end = channel.read(bytes) < 0;
+				bytes.flip();
+				CoderResult result;
+				do
+				{
+					result = decoder.decode(bytes, chars, end);
+					if (result.isError())
+					{
+						result.throwException();
+					}
+					append();
+				}
+				while (result.isOverflow());
+				bytes.compact();
+			}
+
+			while (decoder.flush(chars).isOverflow())
+			{
+				append();
+			}
+			append();
+		}
+
+		if (terminator)
+		{
+			length--;
+		}
+	}
+
+	/**
+	 * Moves the decoded characters to the text buffer, replacing line
+	 * terminators with spaces.
+	 */
+	private void append()
+	{
+		chars.flip();
+		reserve(length + chars.remaining());
+		while (chars.hasRemaining())
+		{
+			char c = chars.get();
+			if (c == '\n' && carriage)
+			{
+				carriage = false;
+				continue;
+			}
+
+			carriage = c == '\r';
+			terminator = c == '\r' || c == '\n';
+			html[length++] = terminator ? ' ' : c;
+		}
+		chars.clear();
+	}
+
+	/**
+	 * Grows the text buffer to hold at least the given number of characters,
+	 * keeping the characters already in it.
+	 *
+	 * @param capacity
+	 *            number of characters needed
+	 */
+	private void reserve(int capacity)
+	{
+		if (html.length < capacity)
+		{
+			char[] grown = new char[Math.max(capacity, (int) Math.min(html.length * 2L, Integer.MAX_VALUE - 8))];
+			System.arraycopy(html, 0, grown, 0, length);
+			html = grown;
+		}
+	}
+
+	/**
+	 * Drops the text and output buffers if they grew larger than the buffers
+	 * kept between calls, so that one large page does not hold on to them for
+	 * the life of the thread.
+	 */
+	private void release()
+	{
+		if (html.length > RETAIN_SIZE)
+		{
+			html = new char[0];
+			length = 0;
+		}
+		if (output.length > RETAIN_SIZE)
+		{
+			output = new char[0];
+			size = 0;
+		}
+	}
+
+	/**
+	 * Removes the HTML from the text buffer.
+	 *
+	 * @return text without any HTML, CSS, or JavaScript
+	 */
+	private String scan()
+	{
+		if (output.length < length)
+		{
+			output = new char[length];
+		}
+
+		size = 0;
+		barrier = 0;
+		for (int layer = 0; layer < exhausted.length; layer++)
+		{
+			exhausted[layer] = Integer.MAX_VALUE;
+		}
+
+		int i = 0;
+		while (i < length)
+		{
+			if (html[i] == '<')
+			{
+				int end = match(i, TAG + 1);
+				if (end >= 0)
+				{
+					emit(' ');
+					i = end;
+					continue;
+				}
+			}
+			emit(html[i]);
+			i++;
+		}
+		return new String(output, 0, size);
+	}
+
+	/**
+	 * Finds the construct of a layer below the given one that starts at a
+	 * position, trying the layers in the order they are removed.
+	 *
+	 * @param start
+	 *            position of a '&lt;'
+	 * @param below
+	 *            layers below this one are tried
+	 * @return position after the construct, or -1 if none starts here
+	 */
+	private int match(int start, int below)
+	{
+		for (int layer = COMMENT; layer < below; layer++)
+		{
+			if (start >= exhausted[layer])
+			{
+				continue;
+			}
+
+			int end;
+			if (layer == COMMENT)
+			{
+				end = comment(start);
+			}
+			else if (layer == TAG)
+			{
+				end = tag(start);
+			}
+			else
+			{
+				end = element(start, layer);
+			}
+
+			if (end >= 0)
+			{
+				return end;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Matches a comment like "<code>&lt;!--.+?--*&gt;</code>" at a position.
+	 *
+	 * @param start
+	 *            position of a '&lt;'
+	 * @return position after the comment, or -1 if there is none
+	 */
+	private int comment(int start)
+	{
+		if (start + 3 >= length || html[start + 1] != '!' || html[start + 2] != '-' || html[start + 3] != '-')
+		{
+			return -1;
+		}
+
+		for (int i = start + 6; i < length; i++)
+		{
+			if (html[i] == '>' && html[i - 1] == '-')
+			{
+				return i + 1;
+			}
+		}
+		exhausted[COMMENT] = Math.min(exhausted[COMMENT], start);
+		return -1;
+	}
+
+	/**
+	 * Matches a tag like "<code>&lt;.*?&gt;</code>" at a position, skipping
+	 * comments and removed elements while looking for the end.
+	 *
+	 * @param start
+	 *            position of a '&lt;'
+	 * @return position after the tag, or -1 if there is none
+	 */
+	private int tag(int start)
+	{
+		int end = find(start + 1, TAG);
+		if (end < 0)
+		{
+			exhausted[TAG] = Math.min(exhausted[TAG], start);
+			return -1;
+		}
+		return end + 1;
+	}
+
+	/**
+	 * Matches an element like
+	 * "<code>(?i)&lt;name[^&gt;]*?&gt;.*?&lt;/name\s*?&gt;</code>" at a position,
+	 * skipping constructs of lower layers while looking for the ends.
+	 *
+	 * @param start
+	 *            position of a '&lt;'
+	 * @param layer
+	 *            layer of the element
+	 * @return position after the element, or -1 if there is none
+	 */
+	private int element(int start, int layer)
+	{
+		char[] name = NAMES[layer];
+		if (!named(start + 1, name))
+		{
+			return -1;
+		}
+
+		int open = find(start + 1 + name.length, layer);
+		if (open < 0)
+		{
+			exhausted[layer] = Math.min(exhausted[layer], start);
+			return -1;
+		}
+
+		int i = open + 1;
+		while (i < length)
+		{
+			if (html[i] == '<')
+			{
+				int end = match(i, layer);
+				if (end >= 0)
+				{
+					i = end;
+					continue;
+				}
+
+				if (i + 1 < length && html[i + 1] == '/' && named(i + 2, name))
+				{
+					end = spaces(i + 2 + name.length, layer);
+					if (end < length && html[end] == '>')
+					{
+						return end + 1;
+					}
+					i = end;
+					continue;
+				}
+			}
+			i++;
+		}
+		exhausted[layer] = Math.min(exhausted[layer], start);
+		return -1;
+	}
+
+	/**
+	 * Skips whitespace, along with constructs of lower layers since they are
+	 * replaced by a space before this layer is matched.
+	 *
+	 * @param from
+	 *            position to start skipping at
+	 * @param layer
+	 *            layer skipping the whitespace
+	 * @return position of the first character that is not skipped
+	 */
+	private int spaces(int from, int layer)
+	{
+		int i = from;
+		while (i < length)
+		{
+			if (isSpace(html[i]))
+			{
+				i++;
+				continue;
+			}
+
+			int end = html[i] == '<' ? match(i, layer) : -1;
+			if (end < 0)
+			{
+				break;
+			}
+			i = end;
+		}
+		return i;
+	}
+
+	/**
+	 * Finds the next '&gt;', skipping constructs of lower layers.
+	 *
+	 * @param from
+	 *            position to start looking at
+	 * @param layer
+	 *            layer looking for the '&gt;'
+	 * @return position of the '&gt;', or -1 if there is none
+	 */
+	private int find(int from, int layer)
+	{
+		int i = from;
+		while (i < length)
+		{
+			char c = html[i];
+			if (c == '>')
+			{
+				return i;
+			}
+
+			if (c == '<')
+			{
+				int end = match(i, layer);
+				if (end >= 0)
+				{
+					i = end;
+					continue;
+				}
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tests whether an element name starts at a position, ignoring ASCII case.
+	 *
+	 * @param start
+	 *            position to test
+	 * @param name
+	 *            lowercase name of the element
+	 * @return true if the name starts at the position
+	 */
+	private boolean named(int start, char[] name)
+	{
+		if (start + name.length > length)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < name.length; i++)
+		{
+			char c = html[start + i];
+			if (c >= 'A' && c <= 'Z')
+			{
+				c += 'a' - 'A';
+			}
+			if (c != name[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a character to the output, replacing an entity like
+	 * "<code>&amp;.\w+;</code>" with a space once its ';' is written. Since the
+	 * word characters of an entity cannot include the '&amp;', the entity can
+	 * only start one or two characters before the word characters.
+	 *
+	 * @param c
+	 *            character to write
+	 */
+	private void emit(char c)
+	{
+		output[size++] = c;
+		if (c != ';')
+		{
+			return;
+		}
+
+		int run = size - 1;
+		while (run > barrier && isWord(output[run - 1]))
+		{
+			run--;
+		}
+		if (run == size - 1)
+		{
+			return;
+		}
+
+		int start = -1;
+		int any = run - 1;
+		if (any > barrier && Character.isLowSurrogate(output[any]) && Character.isHighSurrogate(output[any - 1]))
+		{
+			any--;
+		}
+
+		if (any > barrier && output[any - 1] == '&')
+		{
+			start = any - 1;
+		}
+		else if (run > barrier && output[run - 1] == '&' && run + 1 < size - 1)
+		{
+			start = run - 1;
+		}
+
+		if (start >= 0)
+		{
+			size = start;
+			output[size++] = ' ';
+			barrier = size;
+		}
+	}
+
+	/**
+	 * Tests whether the character is matched by "<code>\w</code>".
+	 *
+	 * @param c
+	 *            character to test
+	 * @return true for ASCII letters, digits and underscores
+	 */
+	private static boolean isWord(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * Tests whether the character is matched by "<code>\s</code>".
+	 *
+	 * @param c
+	 *            character to test
+	 * @return true for ASCII whitespace
+	 */
+	private static boolean isSpace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+}
@@ -0,0 +1,410 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response to an HTTP/1.1 request sent over a pooled keep-alive connection.
+ * Only the status line and headers are read when the response is opened, so
+ * the caller can look at them before deciding whether to read the body at
+ * all. The body is read as a stream that ends with the body, whether its
+ * length is given by Content-Length, by chunked transfer encoding or by the
+ * server closing the connection.
+ *
+ * Closing the response hands the connection back to the pool if the whole
+ * body was read and the server keeps the connection open, and closes it
+ * otherwise, so a body that is not wanted is never downloaded.
+ * @author Benny Fung
+ */
+public class HTTPResponse implements Closeable
+{
+	/** Longest status or header line read. */
+	private static final int MAX_LINE = 1 << 16;
+
+	private final ConnectionPool pool;
+	private final ConnectionPool.Connection connection;
+	private final ArrayList<String> headers;
+	private final Body body;
+	private boolean keepAlive;
+
+	/**
+	 * Reads the status line and headers of a response.
+	 *
+	 * @param pool
+	 * 			pool the connection came from
+	 * @param connection
+	 * 			connection the request was sent on
+	 * @param head
+	 * 			whether the request was a HEAD request, which has no body
+	 * @throws IOException if the connection ends before the status line
+	 */
+	private HTTPResponse(ConnectionPool pool, ConnectionPool.Connection connection, boolean head) throws IOException
+	{
+		this.pool = pool;
+		this.connection = connection;
+		this.headers = new ArrayList<>();
+
+		InputStream in = connection.input();
+		String status = readLine(in);
+		if (status == null)
+		{
+			throw new IOException("No response");
+		}
+		headers.add(status);
+
+		long length = -1;
+		boolean chunked = false;
+		keepAlive = status.startsWith(LinkParser.version);
+
+		String line;
+		while ((line = readLine(in)) != null && !line.isEmpty())
+		{
+			headers.add(line);
+			String[] pair = line.split(":", 2);
+			if (pair.length < 2)
+			{
+				continue;
+			}
+
+			String name = pair[0].trim();
+			String value = pair[1].trim().toLowerCase();
+			if (name.equalsIgnoreCase("Content-Length"))
+			{
+				try
+				{
+					length = Long.parseLong(value);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IOException("Invalid Content-Length: " + value);
+				}
+			}
+			else if (name.equalsIgnoreCase("Transfer-Encoding"))
+			{
+				chunked = value.endsWith("chunked");
+			}
+			else if (name.equalsIgnoreCase("Connection"))
+			{
+				keepAlive = keepAlive ? !value.contains("close") : value.contains("keep-alive");
+			}
+		}
+
+		if (head || hasNoBody(status))
+		{
+			body = new Body(in, 0, false);
+		}
+		else
+		{
+			body = new Body(in, chunked ? -1 : length, chunked);
+			if (!chunked && length < 0)
+			{
+				keepAlive = false;
+			}
+		}
+	}
+
+	/**
+	 * Sends a request over a connection from the pool and reads the status
+	 * line and headers of the response. A pooled connection the server already
+	 * closed is replaced by a new one.
+	 *
+	 * @param pool
+	 * 			pool of keep-alive connections
+	 * @param url
+	 * 			url to request
+	 * @param type
+	 * 			HTTP method to use
+	 * @return response positioned at the start of its body
+	 * @throws IOException if the request cannot be sent or has no valid response
+	 */
+	public static HTTPResponse open(ConnectionPool pool, URL url, LinkParser.HTTP type) throws IOException
+	{
+		return open(pool, url, type, null);
+	}
+	
+	/**
+	 * Sends a request with extra request headers over a connection from the
+	 * pool and reads the status line and headers of the response.
+	 *
+	 * @param pool
+	 * 			pool of keep-alive connections
+	 * @param url
+	 * 			url to request
+	 * @param type
+	 * 			HTTP method to use
+	 * @param headers
+	 * 			extra request headers by name, or null for none
+	 * @return response positioned at the start of its body
+	 * @throws IOException if the request cannot be sent or has no valid response
+	 */
+	public static HTTPResponse open(ConnectionPool pool, URL url, LinkParser.HTTP type, Map<String, String> headers) throws IOException
+	{
+		int port = url.getPort() < 0 ? LinkParser.DEFAULT_PORT : url.getPort();
+		String text = headers == null || headers.isEmpty() ? LinkParser.craftHTTPRequest(url, type, true) : LinkParser.craftHTTPRequest(url, type, headers);
+		byte[] request = text.getBytes(StandardCharsets.UTF_8);
+
+		while (true)
+		{
+			ConnectionPool.Connection connection = pool.acquire(url.getHost(), port);
+			try
+			{
+				OutputStream out = connection.output();
+				out.write(request);
+				out.flush();
+				connection.acknowledgeQuickly();
+				return new HTTPResponse(pool, connection, type == LinkParser.HTTP.HEAD);
+			}
+			catch (IOException e)
+			{
+				connection.close();
+				if (!connection.reused())
+				{
+					throw new IOException("No response from " + url + ": " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the status line followed by the header lines.
+	 *
+	 * @return lines of the headers
+	 */
+	public List<String> headers()
+	{
+		return headers;
+	}
+
+	/**
+	 * Returns the body, which ends where the body of the response ends.
+	 *
+	 * @return stream of the body
+	 */
+	public InputStream body()
+	{
+		return body;
+	}
+
+	/**
+	 * Hands the connection back to the pool if the whole body was read and the
+	 * connection is kept open, and closes it otherwise.
+	 */
+	@Override
+	public void close()
+	{
+		if (keepAlive && body.complete())
+		{
+			pool.release(connection);
+		}
+		else
+		{
+			connection.close();
+		}
+		keepAlive = false;
+	}
+
+	/**
+	 * Tells whether a response never has a body, whatever its headers say.
+	 *
+	 * @param status
+	 * 			status line of the response
+	 * @return true for informational, 204 and 304 responses
+	 */
+	private static boolean hasNoBody(String status)
+	{
+		String[] parts = status.split(" ", 3);
+		if (parts.length < 2)
+		{
+			return false;
+		}
+		String code = parts[1];
+		return code.startsWith("1") || code.equals("204") || code.equals("304");
+	}
+
+	/**
+	 * Reads a status, header, chunk size or trailer line, which ends with a
+	 * line feed and usually a carriage return before it.
+	 *
+	 * @param in
+	 * 			stream to read from
+	 * @return the line without its line terminator, or null at the end of the stream
+	 * @throws IOException if the line is too long
+	 */
+	private static String readLine(InputStream in) throws IOException
+	{
+		byte[] line = new byte[128];
+		int length = 0;
+		int b;
+		while ((b = in.read()) != '\n')
+		{
+			if (b < 0)
+			{
+				if (length == 0)
+				{
+					return null;
+				}
+				break;
+			}
+
+			if (length == line.length)
+			{
+				if (length >= MAX_LINE)
+				{
+					throw new IOException("Header line too long");
+				}
+				line = Arrays.copyOf(line, length * 2);
+			}
+			line[length++] = (byte) b;
+		}
+
+		if (length > 0 && line[length - 1] == '\r')
+		{
+			length--;
+		}
+		return new String(line, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Body of a response, read up to its length, through its chunks, or until
+	 * the connection is closed.
+	 */
+	private static class Body extends InputStream
+	{
+		private final InputStream in;
+		private final boolean chunked;
+
+		/** Bytes left in the body or current chunk, or -1 if unknown. */
+		private long remaining;
+
+		/** Whether a chunk was read, so its line terminator comes next. */
+		private boolean started;
+
+		/** Whether the end of the body was read. */
+		private boolean done;
+
+		/**
+		 * Creates the body of a response.
+		 *
+		 * @param in
+		 * 			stream of the connection, positioned after the headers
+		 * @param length
+		 * 			length of the body, or -1 if it is chunked or ends with the connection
+		 * @param chunked
+		 * 			whether the body is chunked
+		 */
+		public Body(InputStream in, long length, boolean chunked)
+		{
+			this.in = in;
+			this.chunked = chunked;
+			this.remaining = chunked ? 0 : length;
+			this.started = false;
+			this.done = !chunked && length == 0;
+		}
+
+		/**
+		 * Tells whether the whole body was read.
+		 *
+		 * @return true once the end of the body was reached
+		 */
+		public boolean complete()
+		{
+			return done;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			if (done)
+			{
+				return -1;
+			}
+			if (length == 0)
+			{
+				return 0;
+			}
+
+			if (chunked && remaining == 0 && !nextChunk())
+			{
+				return -1;
+			}
+
+			int wanted = remaining < 0 ? length : (int) Math.min(length, remaining);
+			int read = in.read(buffer, offset, wanted);
+			if (read < 0)
+			{
+				if (remaining >= 0)
+				{
+					throw new IOException("Response ended " + remaining + " bytes early");
+				}
+				done = true;
+				return -1;
+			}
+
+			if (remaining > 0)
+			{
+				remaining -= read;
+				if (remaining == 0 && !chunked)
+				{
+					done = true;
+				}
+			}
+			return read;
+		}
+
+		/**
+		 * Reads the size of the next chunk, or the trailer after the last one.
+		 *
+		 * @return true if there is another chunk, or false at the end of the body
+		 * @throws IOException if the stream ends early or a chunk size is invalid
+		 */
+		private boolean nextChunk() throws IOException
+		{
+			if (started && readLine(in) == null)
+			{
+				throw new IOException("Response ended after a chunk");
+			}
+			started = true;
+
+			String line = readLine(in);
+			if (line == null)
+			{
+				throw new IOException("Response ended before the last chunk");
+			}
+
+			int extension = line.indexOf(';');
+			String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+			try
+			{
+				remaining = Long.parseLong(size, 16);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IOException("Invalid chunk size: " + line);
+			}
+
+			if (remaining <= 0)
+			{
+				while ((line = readLine(in)) != null && !line.isEmpty())
+				{
+					// trailer fields are not used
+				}
+				done = true;
+				return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,358 @@
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Schedules crawl work onto a work queue or executor one host at a time, so
+ * that a page full of links to the same host does not send them all to that
+ * host at once while other hosts sit idle.
+ *
+ * Work for each host waits in its own queue, shallowest first and in the
+ * order it was submitted at the same depth, so that a crawl stays
+ * breadth-first. Hosts hand one piece of work at a time to the executor, the
+ * host with the shallowest work first and hosts with work at the same depth
+ * in turn, at most a limited number running at once for each host and
+ * optionally for all hosts together, and each host waits at least a minimum
+ * delay between the starts of its requests. A host that has to wait is woken up by a timer
+ * instead of holding up a thread, so the threads are always free for hosts
+ * that can be sent a request.
+ *
+ * Since work may wait here rather than in the executor, the executor can
+ * run out of work before the crawl is over; {@link #finish()} waits for all
+ * of it instead.
+ * @author Benny Fung
+ */
+public class HostScheduler
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	/** Executor the work runs on. */
+	private final Executor executor;
+
+	/** Most pieces of work running at once for the same host. */
+	private final int perHost;
+
+	/** Most pieces of work running at once for all hosts. */
+	private final int limit;
+
+	/** Least nanoseconds between the starts of two requests to the same host. */
+	private final long delay;
+
+	/** Hosts by name. */
+	private final HashMap<String, Host> hosts;
+
+	/** Hosts with work that can start now, shallowest work first, then in turn. */
+	private final TreeSet<Host> ready;
+
+	/** Order of the next piece of work submitted, and of the next turn taken. */
+	private long order;
+	private long turn;
+
+	/** Wakes up hosts after their delay, or null until a delay is needed. */
+	private ScheduledExecutorService timer;
+
+	/** Number of pieces of work submitted and not finished yet. */
+	private int pending;
+
+	/** Number of pieces of work handed to the executor and not finished yet. */
+	private int running;
+
+	/**
+	 * Initializes a scheduler in front of a work queue.
+	 *
+	 * @param queue
+	 * 			work queue the work runs on
+	 * @param perHost
+	 * 			most pieces of work running at once for the same host
+	 * @param delay
+	 * 			least milliseconds between the starts of two requests to the same host
+	 */
+	public HostScheduler(WorkQueue queue, int perHost, long delay)
+	{
+		this(queue::execute, perHost, delay, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Initializes a scheduler in front of an executor, running at most a
+	 * limited number of pieces of work at once for all hosts together.
+	 *
+	 * @param executor
+	 * 			executor the work runs on
+	 * @param perHost
+	 * 			most pieces of work running at once for the same host
+	 * @param delay
+	 * 			least milliseconds between the starts of two requests to the same host
+	 * @param limit
+	 * 			most pieces of work running at once for all hosts
+	 */
+	public HostScheduler(Executor executor, int perHost, long delay, int limit)
+	{
+		this.executor = executor;
+		this.perHost = Math.max(1, perHost);
+		this.limit = Math.max(1, limit);
+		this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		this.hosts = new HashMap<>();
+		this.ready = new TreeSet<>(Comparator.comparingInt((Host host) -> host.depth).thenComparingLong(host -> host.turn));
+		this.order = 0;
+		this.turn = 0;
+		this.timer = null;
+		this.pending = 0;
+		this.running = 0;
+	}
+
+	/**
+	 * Adds work for a host, which runs once it is the turn of the host and
+	 * both the host and the executor have room for it.
+	 *
+	 * @param host
+	 * 			host the work sends a request to
+	 * @param work
+	 * 			work to run on the executor
+	 */
+	public void submit(String host, Runnable work)
+	{
+		submit(host, 0, work);
+	}
+
+	/**
+	 * Adds work for a host at a depth of the crawl, which runs after the
+	 * shallower work of all hosts once it is the turn of the host and both the
+	 * host and the executor have room for it.
+	 *
+	 * @param host
+	 * 			host the work sends a request to
+	 * @param depth
+	 * 			number of links between the seed and the page of the work
+	 * @param work
+	 * 			work to run on the executor
+	 */
+	public synchronized void submit(String host, int depth, Runnable work)
+	{
+		Host waiting = hosts.computeIfAbsent(host, Host::new);
+		if (waiting.ready && depth < waiting.depth)
+		{
+			// the host moves ahead of hosts with deeper work
+			ready.remove(waiting);
+			waiting.depth = depth;
+			ready.add(waiting);
+		}
+		waiting.work.add(new Work(work, depth, order++));
+		pending++;
+		enqueue(waiting);
+		dispatch();
+	}
+
+	/**
+	 * Waits until all submitted work has finished, including work submitted
+	 * while waiting.
+	 */
+	public synchronized void finish()
+	{
+		try
+		{
+			while (pending > 0)
+			{
+				wait();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			logger.debug("Finish interrupted" + e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the timer. Work still waiting for its host is dropped.
+	 */
+	public synchronized void shutdown()
+	{
+		if (timer != null)
+		{
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Hands work to the executor from the ready host with the shallowest work,
+	 * one piece at a time, until no host is ready or the executor has no room
+	 * for more.
+	 */
+	private void dispatch()
+	{
+		long now = System.nanoTime();
+		Host host;
+		while (running < limit && (host = ready.pollFirst()) != null)
+		{
+			host.ready = false;
+			if (host.work.isEmpty() || host.running >= perHost)
+			{
+				continue;
+			}
+
+			if (host.next - now > 0)
+			{
+				wake(host, host.next - now);
+				continue;
+			}
+
+			Runnable work = host.work.poll().work;
+			Host started = host;
+			host.running++;
+			host.next = now + delay;
+			running++;
+			executor.execute(() ->
+			{
+				try
+				{
+					work.run();
+				}
+				finally
+				{
+					finished(started);
+				}
+			});
+			enqueue(host);
+		}
+	}
+
+	/**
+	 * Counts work of a host as finished and starts more work.
+	 *
+	 * @param host
+	 * 			host the work sent a request to
+	 */
+	private synchronized void finished(Host host)
+	{
+		host.running--;
+		running--;
+		pending--;
+		enqueue(host);
+		dispatch();
+		if (pending <= 0)
+		{
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Adds a host to the ready hosts if it has work that can start, after the
+	 * hosts with work at the same depth.
+	 *
+	 * @param host
+	 * 			host to add
+	 */
+	private void enqueue(Host host)
+	{
+		if (!host.ready && !host.sleeping && !host.work.isEmpty() && host.running < perHost)
+		{
+			host.ready = true;
+			host.depth = host.work.peek().depth;
+			host.turn = turn++;
+			ready.add(host);
+		}
+	}
+
+	/**
+	 * Puts a host to sleep until its delay is over.
+	 *
+	 * @param host
+	 * 			host to wake up later
+	 * @param nanos
+	 * 			nanoseconds until the host may start another request
+	 */
+	private void wake(Host host, long nanos)
+	{
+		if (timer == null)
+		{
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable ->
+			{
+				Thread thread = new Thread(runnable, "host-scheduler");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			timer = executor;
+		}
+
+		host.sleeping = true;
+		timer.schedule(() ->
+		{
+			synchronized (HostScheduler.this)
+			{
+				host.sleeping = false;
+				enqueue(host);
+				dispatch();
+			}
+		}, nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Work waiting for a host, along with how much of it is running and when
+	 * the host may be sent another request.
+	 */
+	private static class Host
+	{
+		private final String name;
+		private final PriorityQueue<Work> work;
+		private int running;
+		private int depth;
+		private long turn;
+		private long next;
+		private boolean ready;
+		private boolean sleeping;
+
+		private Host(String name)
+		{
+			this.name = name;
+			this.work = new PriorityQueue<>();
+			this.running = 0;
+			this.depth = 0;
+			this.turn = 0;
+			this.next = System.nanoTime();
+			this.ready = false;
+			this.sleeping = false;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	}
+
+	/**
+	 * Piece of work along with its depth and the order it was submitted in.
+	 */
+	private static class Work implements Comparable<Work>
+	{
+		private final Runnable work;
+		private final int depth;
+		private final long order;
+
+		private Work(Runnable work, int depth, long order)
+		{
+			this.work = work;
+			this.depth = depth;
+			this.order = order;
+		}
+
+		@Override
+		public int compareTo(Work other)
+		{
+			if (depth != other.depth)
+			{
+				return Integer.compare(depth, other.depth);
+			}
+			return Long.compare(order, other.order);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares how fast the thread-safe index implementations can be built by
+ * several threads at once, and how many searches a separate thread can run
+ * against the index while it is being built. Files are read and parsed before
+ * timing starts, so only adding to the index and searching are measured.
+ *
+ * Usage: IndexBenchmark -path dir [-rounds 3]
+ * @author Benny Fung
+ */
+public class IndexBenchmark
+{
+	/** Thread counts to compare. */
+	private static final int[] THREADS = { 1, 4, 8, 16 };
+
+	/**
+	 * Runs the benchmark and prints one line per index and thread count.
+	 *
+	 * @param args
+	 * 			takes in arguments
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		ArgumentMap argument = new ArgumentMap(args);
+		if (!argument.hasValue("-path"))
+		{
+			System.out.println("Usage: IndexBenchmark -path dir [-rounds 3]");
+			return;
+		}
+		int rounds = Math.max(1, argument.getInteger("-rounds", 3));
+
+		List<String> paths = new ArrayList<>();
+		List<String[]> documents = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(Paths.get(argument.getValue("-path"))))
+		{
+			for (Path path : files.filter(IndexBenchmark::isHTML).sorted().collect(Collectors.toList()))
+			{
+				String html = String.join(" ", Files.readAllLines(path, StandardCharsets.UTF_8));
+				paths.add(path.toString());
+				documents.add(WordParser.parseWords(HTMLCleaner.stripHTML(html)));
+			}
+		}
+
+		String[][] queries = queries(documents);
+		System.out.printf("%d documents, %d rounds, %d processors%n", documents.size(), rounds, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-12s %8s %12s %14s%n", "index", "threads", "docs/s", "searches/s");
+
+		for (int threads : THREADS)
+		{
+			for (boolean concurrent : new boolean[] { false, true })
+			{
+				double docs = 0;
+				double searches = 0;
+				for (int round = 0; round < rounds; round++)
+				{
+					ThreadedInvertedIndex index = concurrent ? new ConcurrentInvertedIndex() : new ThreadedInvertedIndex();
+					double[] result = run(index, threads, paths, documents, queries);
+					docs = Math.max(docs, result[0]);
+					searches = Math.max(searches, result[1]);
+				}
+				System.out.printf("%-12s %8d %12.0f %14.0f%n", concurrent ? "concurrent" : "threaded", threads, docs, searches);
+			}
+		}
+	}
+
+	/**
+	 * Builds the index with a work queue the same way {@link ThreadedIndexBuilder}
+	 * does, while another thread keeps running partial searches.
+	 *
+	 * @param index
+	 * 			index to build
+	 * @param threads
+	 * 			number of threads adding to the index
+	 * @param paths
+	 * 			paths of the documents
+	 * @param documents
+	 * 			parsed words of the documents
+	 * @param queries
+	 * 			queries to search for while building
+	 * @return documents added per second and searches run per second
+	 */
+	private static double[] run(ThreadedInvertedIndex index, int threads, List<String> paths, List<String[]> documents, String[][] queries)
+	{
+		WorkQueue queue = new WorkQueue(threads);
+		AtomicBoolean building = new AtomicBoolean(true);
+		long[] searches = new long[1];
+
+		Thread searcher = new Thread(() ->
+		{
+			int i = 0;
+			while (building.get())
+			{
+				index.partialSearch(queries[i++ % queries.length]);
+				searches[0]++;
+			}
+		});
+
+		long start = System.nanoTime();
+		searcher.start();
+		for (int i = 0; i < documents.size(); i++)
+		{
+			String path = paths.get(i);
+			String[] words = documents.get(i);
+			queue.execute(() ->
+			{
+				InvertedIndex local = new InvertedIndex(index.documents());
+				local.addAll(words, index.documents().add(path));
+				index.addAll(local);
+			});
+		}
+		queue.finish();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		building.set(false);
+
+		try
+		{
+			searcher.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		queue.shutdown();
+
+		return new double[] { documents.size() / seconds, searches[0] / seconds };
+	}
+
+	/**
+	 * Tests whether the path is an HTML file, using the same check as the index builders.
+	 *
+	 * @param path
+	 * 			path to check
+	 * @return true if the path ends with htm or html
+	 */
+	private static boolean isHTML(Path path)
+	{
+		String name = path.toString().toLowerCase();
+		return !Files.isDirectory(path) && (name.endsWith("htm") || name.endsWith("html"));
+	}
+
+	/**
+	 * Picks short prefixes of words found in the documents to search for.
+	 *
+	 * @param documents
+	 * 			parsed words of the documents
+	 * @return queries of one or two prefixes
+	 */
+	private static String[][] queries(List<String[]> documents)
+	{
+		List<String[]> queries = new ArrayList<>();
+		for (String[] words : documents)
+		{
+			if (words.length > 1 && queries.size() < 100)
+			{
+				String first = words[words.length / 2];
+				String second = words[words.length - 1];
+				queries.add(new String[] { first.substring(0, Math.min(3, first.length())), second });
+			}
+		}
+		if (queries.isEmpty())
+		{
+			queries.add(new String[] { "a" });
+		}
+		return queries.toArray(new String[0][]);
+	}
+}
@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Saves an inverted index to a binary file and loads it back, so an index
+ * does not have to be rebuilt from the original documents every run.
+ *
+ * The file starts with a header of four ints: a magic number, the format
+ * version, the number of documents and the number of words. The paths of the
+ * documents follow in id order. Removed documents are left out and the ids
+ * of the rest are renumbered, so the file only holds live documents. Then
+ * every word follows in sorted order as one record: the record length, the
+ * number of chars shared with the previous word, the rest of the word in
+ * UTF-8, and its postings as document id gaps and sealed position lists.
+ * Everything after the header is variable-byte encoded.
+ *
+ * Files are loaded through memory-mapped windows of at most
+ * {@link #WINDOW_SIZE} bytes, so files larger than 2 GB can still be read.
+ * Loading only reads the words and the paths; the postings stay in the
+ * mapped file and are decoded when they are searched, see
+ * {@link MappedPostings}, so the operating system pages them in as needed.
+ * A file is written next to its path first and then moved over it, so that
+ * an index still mapped from the old file keeps reading the old file.
+ * @author Benny Fung
+ */
+public class IndexFile
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	/** Marks the start of an index file ("SEIX"). */
+	public static final int MAGIC = 0x53454958;
+
+	/** Version of the file format. */
+	public static final int VERSION = 1;
+
+	/** Size of the header in bytes. */
+	private static final int HEADER_SIZE = 16;
+
+	/** Size of the write buffer. */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Largest part of the file mapped at once. */
+	private static final int WINDOW_SIZE = 1 << 30;
+
+	/** Most bytes needed to variable-byte encode an int. */
+	private static final int MAX_INT_LENGTH = 5;
+
+	/**
+	 * Writes the words and postings of an index to a file.
+	 *
+	 * @param postings
+	 * 			words and postings of the index, in sorted order
+	 * @param documents
+	 * 			document table of the index
+	 * @param path
+	 * 			file to write to
+	 * @throws IOException
+	 */
+	public static void write(Iterable<Map.Entry<String, PostingList>> postings, DocumentTable documents, Path path) throws IOException
+	{
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			Writer writer = new Writer(channel);
+			int[] remap = new int[documents.size()];
+			int count = 0;
+			for (int i = 0; i < remap.length; i++)
+			{
+				remap[i] = documents.isDeleted(i) ? -1 : count++;
+			}
+
+			ByteBuffer out = writer.reserve(HEADER_SIZE);
+			out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+
+			for (int i = 0; i < remap.length; i++)
+			{
+				if (remap[i] < 0)
+				{
+					continue;
+				}
+				byte[] bytes = documents.path(i).getBytes(StandardCharsets.UTF_8);
+				out = writer.reserve(MAX_INT_LENGTH + bytes.length);
+				PositionList.putInt(out, bytes.length);
+				out.put(bytes);
+			}
+
+			String previous = "";
+			int words = 0;
+			for (Map.Entry<String, PostingList> entry : postings)
+			{
+				PostingList list = entry.getValue();
+				int size = 0;
+				for (int i = 0; i < list.size(); i++)
+				{
+					if (remap[list.documentAt(i)] >= 0)
+					{
+						size++;
+					}
+				}
+				if (size == 0)
+				{
+					continue;
+				}
+
+				String word = entry.getKey();
+				int shared = shared(previous, word);
+				byte[] suffix = word.substring(shared).getBytes(StandardCharsets.UTF_8);
+
+				int length = PositionList.encodedLength(shared) + PositionList.encodedLength(suffix.length) + suffix.length;
+				length += PositionList.encodedLength(size);
+				int document = 0;
+				for (int i = 0; i < list.size(); i++)
+				{
+					int id = remap[list.documentAt(i)];
+					if (id >= 0)
+					{
+						length += PositionList.encodedLength(id - document);
+						length += list.positionsAt(i).writtenLength();
+						document = id;
+					}
+				}
+
+				out = writer.reserve(MAX_INT_LENGTH + length);
+				PositionList.putInt(out, length);
+				PositionList.putInt(out, shared);
+				PositionList.putInt(out, suffix.length);
+				out.put(suffix);
+				PositionList.putInt(out, size);
+				document = 0;
+				for (int i = 0; i < list.size(); i++)
+				{
+					int id = remap[list.documentAt(i)];
+					if (id >= 0)
+					{
+						PositionList.putInt(out, id - document);
+						list.positionsAt(i).write(out);
+						document = id;
+					}
+				}
+
+				previous = word;
+				words++;
+			}
+			writer.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(4).putInt(words);
+			header.flip();
+			channel.write(header, HEADER_SIZE - 4);
+			logger.debug("Saved " + words + " words and " + count + " documents to " + path);
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Loads an index file into an index, mapping the file rather than
+	 * decoding its postings. The loaded words are added with
+	 * {@link InvertedIndex#addAll(InvertedIndex)}, so documents already in the
+	 * index are kept and paths already in its document table keep their ids.
+	 * The words and paths are read, and every word checked to be complete,
+	 * before the index or its document table is changed, so a truncated file
+	 * leaves the index as it was.
+	 *
+	 * @param path
+	 * 			file to read from
+	 * @param index
+	 * 			index to add to
+	 * @throws IOException if the file cannot be read or is not an index file
+	 */
+	public static void read(Path path, InvertedIndex index) throws IOException
+	{
+		String[] paths;
+		Reader reader;
+		TermDictionary<Object> words = new TermDictionary<>();
+		long[] offsets;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			reader = new Reader(channel);
+			ByteBuffer in = reader.require(HEADER_SIZE);
+			if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			{
+				throw new IOException("Not an index file: " + path);
+			}
+			int count = in.getInt();
+			int total = in.getInt();
+
+			paths = new String[count];
+			for (int i = 0; i < count; i++)
+			{
+				in = reader.require(MAX_INT_LENGTH);
+				byte[] bytes = new byte[PositionList.getInt(in)];
+				reader.require(bytes.length).get(bytes);
+				paths[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+
+			offsets = new long[total];
+			TermDictionary<Object>.Packer packer = words.packer(total, total * 8);
+			String previous = "";
+			for (int w = 0; w < total; w++)
+			{
+				in = reader.require(MAX_INT_LENGTH);
+				int length = PositionList.getInt(in);
+				in = reader.require(length);
+				if (length <= 0 || in.remaining() < length)
+				{
+					throw new IOException("Corrupt index file: " + path);
+				}
+				int end = in.position() + length;
+
+				int shared = PositionList.getInt(in);
+				byte[] suffix = new byte[PositionList.getInt(in)];
+				in.get(suffix);
+				String word = previous.substring(0, shared).concat(new String(suffix, StandardCharsets.UTF_8));
+				if (w > 0 && word.compareTo(previous) <= 0)
+				{
+					throw new IOException("Corrupt index file: " + path);
+				}
+
+				packer.add(word, null);
+				offsets[w] = (long) reader.window() << 32 | in.position();
+				in.position(end);
+				previous = word;
+			}
+			if (!reader.atEnd())
+			{
+				throw new IOException("Corrupt index file: " + path);
+			}
+			packer.finish();
+			logger.debug("Mapped " + total + " words and " + count + " documents from " + path);
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("Corrupt index file: " + path, e);
+		}
+
+		// ids of the file stay the same in a table that had no documents yet
+		DocumentTable documents = index.documents();
+		int[] remap = new int[paths.length];
+		boolean same = true;
+		for (int i = 0; i < paths.length; i++)
+		{
+			remap[i] = documents.add(paths[i]);
+			same &= remap[i] == i;
+		}
+
+		InvertedIndex loaded = new InvertedIndex(documents);
+		loaded.map(new MappedPostings(path, reader.windows(), words, offsets, paths.length, same ? null : remap));
+		index.addAll(loaded);
+	}
+
+	/**
+	 * Returns the number of leading chars two words share, never splitting a
+	 * surrogate pair so the rest of the word can be encoded on its own.
+	 *
+	 * @param previous
+	 * 			previous word
+	 * @param word
+	 * 			current word
+	 * @return number of shared chars
+	 */
+	private static int shared(String previous, String word)
+	{
+		int limit = Math.min(previous.length(), word.length());
+		int shared = 0;
+		while (shared < limit && previous.charAt(shared) == word.charAt(shared))
+		{
+			shared++;
+		}
+		if (shared > 0 && Character.isHighSurrogate(word.charAt(shared - 1)))
+		{
+			shared--;
+		}
+		return shared;
+	}
+
+	/**
+	 * Writes to a channel through a reusable buffer.
+	 */
+	private static class Writer
+	{
+		private final FileChannel channel;
+		private ByteBuffer buffer;
+
+		public Writer(FileChannel channel)
+		{
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+
+		/**
+		 * Returns the buffer with at least the given number of bytes remaining,
+		 * writing out what was buffered or growing the buffer if needed.
+		 *
+		 * @param bytes
+		 * 			number of bytes needed
+		 * @return buffer to write to
+		 * @throws IOException
+		 */
+		public ByteBuffer reserve(int bytes) throws IOException
+		{
+			if (buffer.remaining() < bytes)
+			{
+				flush();
+				if (buffer.capacity() < bytes)
+				{
+					buffer = ByteBuffer.allocate(bytes);
+				}
+			}
+			return buffer;
+		}
+
+		/**
+		 * Writes out everything buffered.
+		 *
+		 * @throws IOException
+		 */
+		public void flush() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Reads from a channel through memory-mapped windows.
+	 */
+	private static class Reader
+	{
+		private final FileChannel channel;
+		private final long size;
+		private final ArrayList<ByteBuffer> windows;
+		private MappedByteBuffer window;
+		private long start;
+
+		public Reader(FileChannel channel) throws IOException
+		{
+			this.channel = channel;
+			this.size = channel.size();
+			this.windows = new ArrayList<>();
+			this.start = 0;
+			map(0, 0);
+		}
+
+		/**
+		 * Returns the index of the current window among the windows mapped.
+		 *
+		 * @return index of the current window
+		 */
+		public int window()
+		{
+			return windows.size() - 1;
+		}
+
+		/**
+		 * Returns every window mapped so far, which stay valid after the
+		 * channel is closed.
+		 *
+		 * @return mapped windows in file order
+		 */
+		public ByteBuffer[] windows()
+		{
+			return windows.toArray(new ByteBuffer[0]);
+		}
+
+		/**
+		 * Tells whether every byte of the file was read.
+		 *
+		 * @return true at the end of the file
+		 */
+		public boolean atEnd()
+		{
+			return start + window.position() == size;
+		}
+
+		/**
+		 * Returns the mapped window with at least the given number of bytes
+		 * remaining, mapping the next part of the file if needed. Fewer bytes
+		 * may remain at the end of the file.
+		 *
+		 * @param bytes
+		 * 			number of bytes needed
+		 * @return mapped window positioned at the next byte to read
+		 * @throws IOException
+		 */
+		public ByteBuffer require(int bytes) throws IOException
+		{
+			if (window.remaining() < bytes && start + window.limit() < size)
+			{
+				map(start + window.position(), bytes);
+			}
+			return window;
+		}
+
+		/**
+		 * Maps the part of the file starting at the offset.
+		 *
+		 * @param offset
+		 * 			offset of the window in the file
+		 * @param bytes
+		 * 			minimum number of bytes to map, if the file is long enough
+		 * @throws IOException
+		 */
+		private void map(long offset, int bytes) throws IOException
+		{
+			long length = Math.min(size - offset, Math.max(WINDOW_SIZE, bytes));
+			window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			windows.add(window);
+			start = offset;
+		}
+	}
+}
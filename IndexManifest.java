@@ -0,0 +1,235 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Manifest of the files an index was built from, kept in a directory along
+ * with the index, so that the next build from the same directory only has to
+ * parse the files that were added or changed.
+ *
+ * For every file the manifest keeps its size, its last modified time and a
+ * fingerprint of its content. A file with the same size and time as before
+ * is unchanged without being read. A file whose size or time changed is read
+ * and fingerprinted, and is still unchanged if its content is the same.
+ * The build starts from the saved index, see {@link #restore(InvertedIndex)},
+ * so unchanged files are neither parsed nor copied. A changed file has its
+ * old document removed from the index before it is parsed again, and files
+ * that were deleted are removed once the build is done, see
+ * {@link #finish()}. Their postings are reclaimed when the index is compacted.
+ *
+ * A file changed so soon after the last build started that its time may not
+ * tell the change apart is always fingerprinted, since file times can be as
+ * coarse as a couple of seconds.
+ *
+ * The manifest file starts with a magic number, the format version, the
+ * time the build started and the number of files, followed by one record per
+ * file. The index is saved next to it as an {@link IndexFile}.
+ * @author Benny Fung
+ */
+public class IndexManifest extends IndexState<IndexManifest.Entry>
+{
+	/** Marks the start of a manifest file ("SEMF"). */
+	public static final int MAGIC = 0x53454d46;
+
+	/** Version of the file format. */
+	public static final int VERSION = 1;
+
+	/** Name of the manifest file in the directory. */
+	public static final String MANIFEST_FILE = "files.manifest";
+
+	/** Name of the index file in the directory. */
+	public static final String INDEX_FILE = "files.index";
+
+	/** Coarsest last modified times to expect, in milliseconds. */
+	private static final long TIME_GRANULARITY = 2000;
+
+	/** Size of the buffers files are fingerprinted through. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Buffers each thread reads files through to fingerprint them. */
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+	/** Time the last build started, in milliseconds. */
+	private long built;
+
+	/** Time this build started, in milliseconds. */
+	private final long started;
+
+	/**
+	 * Initializes the manifest of a build.
+	 *
+	 * @param directory
+	 * 			directory the manifest is kept in
+	 */
+	private IndexManifest(Path directory)
+	{
+		super(directory, MANIFEST_FILE, INDEX_FILE, MAGIC, VERSION);
+		this.built = 0;
+		this.started = System.currentTimeMillis();
+	}
+
+	/**
+	 * Loads the manifest of the last build from a directory. If the directory
+	 * holds no manifest or no index yet, or they cannot be read, every file
+	 * is indexed as new.
+	 *
+	 * @param directory
+	 * 			directory the manifest is kept in
+	 * @return manifest of the last build
+	 */
+	public static IndexManifest load(Path directory)
+	{
+		IndexManifest manifest = new IndexManifest(directory);
+		manifest.read();
+		return manifest;
+	}
+
+	/**
+	 * Reads the time the last build started and its files.
+	 */
+	@Override
+	protected Map<String, Entry> readEntries(DataInputStream in) throws IOException
+	{
+		long built = in.readLong();
+		int count = in.readInt();
+		HashMap<String, Entry> previous = new HashMap<>(count * 2);
+		for (int i = 0; i < count; i++)
+		{
+			String file = in.readUTF();
+			previous.put(file, new Entry(in.readLong(), in.readLong(), in.readLong()));
+		}
+		this.built = built;
+		return previous;
+	}
+
+	/**
+	 * Writes the time this build started and its files.
+	 */
+	@Override
+	protected void writeEntries(DataOutputStream out) throws IOException
+	{
+		out.writeLong(started);
+		out.writeInt(current.size());
+		for (Map.Entry<String, Entry> file : current.entrySet())
+		{
+			Entry entry = file.getValue();
+			out.writeUTF(file.getKey());
+			out.writeLong(entry.size);
+			out.writeLong(entry.modified);
+			out.writeLong(entry.hash);
+		}
+	}
+
+	/**
+	 * Records a file of this build and tells whether it has to be indexed,
+	 * reading it only if its size or last modified time changed. The old
+	 * document of a changed file is removed from the index, so that parsing
+	 * the file again replaces it.
+	 *
+	 * @param path
+	 * 			file to check
+	 * @return true if the file was added or changed since the last build, or
+	 * 		false if its words are already in the index
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean changed(Path path) throws IOException
+	{
+		String file = path.toString();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		Entry last = previous.get(file);
+		if (last != null && last.size == size && last.modified == modified && modified < built - TIME_GRANULARITY)
+		{
+			keep(file, last, false);
+			return false;
+		}
+
+		Entry entry = new Entry(size, modified, fingerprint(path));
+		if (last != null && last.hash == entry.hash)
+		{
+			keep(file, entry, true);
+			return false;
+		}
+
+		replace(file, entry, last != null);
+		return true;
+	}
+
+	/**
+	 * Forgets a file that could not be indexed, so that the next build tries
+	 * it again.
+	 *
+	 * @param path
+	 * 			file that failed
+	 */
+	public void failed(Path path)
+	{
+		current.remove(path.toString());
+		unchanged.remove(path.toString());
+	}
+
+	/**
+	 * Describes how many files changed since the last build.
+	 *
+	 * @return unchanged, changed, new and deleted files as a line of text
+	 */
+	public String stats()
+	{
+		return stats("manifest", "same time", "deleted");
+	}
+
+	/**
+	 * Computes the 64-bit fingerprint of the content of a file, the same way
+	 * as {@link URLFrontier#fingerprint(String)} but over its bytes. The file
+	 * is read through a small buffer reused by the thread, never as a whole.
+	 *
+	 * @param path
+	 * 			file to fingerprint
+	 * @return fingerprint of the content
+	 * @throws IOException if the file cannot be read
+	 */
+	private static long fingerprint(Path path) throws IOException
+	{
+		ByteBuffer buffer = buffers.get();
+		long hash = URLFrontier.FNV_BASIS;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			buffer.clear();
+			while (channel.read(buffer) >= 0)
+			{
+				buffer.flip();
+				hash = URLFrontier.hash(hash, buffer);
+				buffer.clear();
+			}
+		}
+		return URLFrontier.mix(hash);
+	}
+
+	/**
+	 * What a build saw of a file: its size, last modified time and the
+	 * fingerprint of its content.
+	 */
+	static class Entry
+	{
+		private final long size;
+		private final long modified;
+		private final long hash;
+
+		private Entry(long size, long modified, long hash)
+		{
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
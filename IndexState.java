@@ -0,0 +1,287 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * What an incremental build saw of every document it indexed, kept in a
+ * directory along with the index it built, so that the next build only has
+ * to index the documents that changed. Subclasses decide what to keep of a
+ * document and whether it changed; this class loads and saves the state file
+ * and the index next to it, and removes the documents that are gone.
+ *
+ * A build starts from the saved index, see {@link #restore(InvertedIndex)},
+ * so unchanged documents are neither parsed nor copied. If the state file or
+ * the saved index cannot be read, the last build is forgotten and every
+ * document is indexed as new, so a damaged directory fixes itself with the
+ * next save.
+ *
+ * The state file starts with a magic number and the format version, followed
+ * by what the subclass writes. The index is saved next to it as an
+ * {@link IndexFile}.
+ *
+ * @param <E>
+ * 			what is kept of every document
+ * @author Benny Fung
+ */
+public abstract class IndexState<E>
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	/** Size of the read and write buffers. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Directory the state is kept in. */
+	private final Path directory;
+
+	/** Names of the state file and the index file in the directory. */
+	private final String stateFile;
+	private final String indexFile;
+
+	/** Marks the start of the state file, and the version of its format. */
+	private final int magic;
+	private final int version;
+
+	/** Documents of the last build by path or URL, only read during a build. */
+	protected Map<String, E> previous;
+
+	/** Documents of this build by path or URL. */
+	protected final ConcurrentHashMap<String, E> current;
+
+	/** Documents of this build that did not change since the last one. */
+	protected final Set<String> unchanged;
+
+	/** Index of this build, which starts from the saved index, or null until it is restored. */
+	private InvertedIndex index;
+
+	/** Number of documents unchanged without reading them, with the same content, changed or new. */
+	private final AtomicInteger skipped;
+	private final AtomicInteger same;
+	private final AtomicInteger changed;
+	private final AtomicInteger added;
+
+	/**
+	 * Initializes the state of a build that has no last build yet.
+	 *
+	 * @param directory
+	 * 			directory the state is kept in
+	 * @param stateFile
+	 * 			name of the state file in the directory
+	 * @param indexFile
+	 * 			name of the index file in the directory
+	 * @param magic
+	 * 			number the state file starts with
+	 * @param version
+	 * 			version of the state file format
+	 */
+	protected IndexState(Path directory, String stateFile, String indexFile, int magic, int version)
+	{
+		this.directory = directory;
+		this.stateFile = stateFile;
+		this.indexFile = indexFile;
+		this.magic = magic;
+		this.version = version;
+		this.previous = Collections.emptyMap();
+		this.current = new ConcurrentHashMap<>();
+		this.unchanged = ConcurrentHashMap.newKeySet();
+		this.index = null;
+		this.skipped = new AtomicInteger();
+		this.same = new AtomicInteger();
+		this.changed = new AtomicInteger();
+		this.added = new AtomicInteger();
+	}
+
+	/**
+	 * Reads the documents of the last build, if the directory holds both the
+	 * state file and the index. If the state file cannot be read, every
+	 * document is indexed as new.
+	 */
+	protected void read()
+	{
+		Path path = directory.resolve(stateFile);
+		if (!Files.isRegularFile(path) || !Files.isRegularFile(directory.resolve(indexFile)))
+		{
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)))
+		{
+			if (in.readInt() != magic || in.readInt() != version)
+			{
+				throw new IOException("Not a state file: " + path);
+			}
+			previous = readEntries(in);
+			logger.debug("Loaded the state of " + previous.size() + " documents from " + path);
+		}
+		catch (IOException e)
+		{
+			logger.debug("Unable to load " + path + ", indexing every document as new: " + e);
+		}
+	}
+
+	/**
+	 * Reads the documents of the last build, after the magic number and the
+	 * version.
+	 *
+	 * @param in
+	 * 			state file to read from
+	 * @return documents of the last build by path or URL
+	 * @throws IOException if the state file cannot be read
+	 */
+	protected abstract Map<String, E> readEntries(DataInputStream in) throws IOException;
+
+	/**
+	 * Writes the documents of this build, after the magic number and the
+	 * version.
+	 *
+	 * @param out
+	 * 			state file to write to
+	 * @throws IOException if the state file cannot be written
+	 */
+	protected abstract void writeEntries(DataOutputStream out) throws IOException;
+
+	/**
+	 * Starts a build from the index saved with the state, adding its words to
+	 * the index of this build. Must be called before any document is checked.
+	 * If the saved index cannot be read, the last build is forgotten, so
+	 * every document is indexed as new.
+	 *
+	 * @param index
+	 * 			index of this build
+	 */
+	public void restore(InvertedIndex index)
+	{
+		this.index = index;
+		if (previous.isEmpty())
+		{
+			return;
+		}
+
+		Path path = directory.resolve(indexFile);
+		try
+		{
+			index.load(path);
+			logger.debug("Restored the index of " + previous.size() + " documents from " + path);
+		}
+		catch (IOException e)
+		{
+			previous = Collections.emptyMap();
+			logger.debug("Unable to restore " + path + ", indexing every document as new: " + e);
+		}
+	}
+
+	/**
+	 * Records a document that did not change since the last build, whose
+	 * words are already in the index.
+	 *
+	 * @param key
+	 * 			path or URL of the document
+	 * @param entry
+	 * 			what this build saw of the document
+	 * @param read
+	 * 			true if the content had to be read to tell it did not change
+	 */
+	protected void keep(String key, E entry, boolean read)
+	{
+		current.put(key, entry);
+		unchanged.add(key);
+		(read ? same : skipped).incrementAndGet();
+	}
+
+	/**
+	 * Records a document that changed or is new. The old document of a
+	 * changed one is removed from the index, so that indexing it again
+	 * replaces it.
+	 *
+	 * @param key
+	 * 			path or URL of the document
+	 * @param entry
+	 * 			what this build saw of the document
+	 * @param existed
+	 * 			true if the last build had the document
+	 */
+	protected void replace(String key, E entry, boolean existed)
+	{
+		if (existed)
+		{
+			index.remove(key);
+		}
+		(existed ? changed : added).incrementAndGet();
+		current.put(key, entry);
+	}
+
+	/**
+	 * Removes the documents of the last build that this build did not find,
+	 * or could not index, from the index. Should be called once the build is
+	 * done.
+	 */
+	public void finish()
+	{
+		int removed = 0;
+		for (String key : previous.keySet())
+		{
+			if (!current.containsKey(key) && index.remove(key))
+			{
+				removed++;
+			}
+		}
+		logger.debug("Removed " + removed + " documents that are gone, kept " + unchanged.size() + " unchanged documents");
+	}
+
+	/**
+	 * Saves the documents of this build along with its index, replacing the
+	 * state of the last build. Both files are written next to the old ones
+	 * first, so a failed save leaves the old state intact.
+	 *
+	 * @param index
+	 * 			index of this build, including the unchanged documents
+	 * @throws IOException if the state cannot be written
+	 */
+	public void save(InvertedIndex index) throws IOException
+	{
+		Files.createDirectories(directory);
+		Path indexTemp = directory.resolve(indexFile + ".tmp");
+		Path stateTemp = directory.resolve(stateFile + ".tmp");
+
+		index.save(indexTemp);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stateTemp), BUFFER_SIZE)))
+		{
+			out.writeInt(magic);
+			out.writeInt(version);
+			writeEntries(out);
+		}
+
+		Files.move(indexTemp, directory.resolve(indexFile), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(stateTemp, directory.resolve(stateFile), StandardCopyOption.REPLACE_EXISTING);
+		logger.debug("Saved the state of " + current.size() + " documents to " + directory);
+	}
+
+	/**
+	 * Describes how many documents changed since the last build.
+	 *
+	 * @param name
+	 * 			name of the line
+	 * @param skippedName
+	 * 			what made documents unchanged without reading them
+	 * @param goneName
+	 * 			what the documents that are gone are called
+	 * @return unchanged, changed, new and gone documents as a line of text
+	 */
+	protected String stats(String name, String skippedName, String goneName)
+	{
+		return String.format("%-8s %7d unchanged (%d %s, %d same content) %7d changed %7d new %7d %s",
+				name, skipped.get() + same.get(), skipped.get(), skippedName, same.get(), changed.get(), added.get(),
+				Math.max(0, previous.size() - skipped.get() - same.get() - changed.get()), goneName);
+	}
+}
@@ -1,27 +1,76 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.TreeMap;
-import java.util.TreeSet; 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Creates an InvertedIndex of a TreeMap which contains methods useful to 
+ *
+ * Documents can be removed or replaced. A removed document is only marked as
+ * deleted in the document table, see {@link DocumentTable#remove(String)}, so
+ * removing takes constant time and searches and output skip it right away.
+ * Its postings stay until {@link #compact()} reclaims them.
+ *
+ * An index loaded from an index file keeps the postings of the file in the
+ * mapped file, see {@link MappedPostings}, and only decodes the postings of
+ * a word when it is searched or written out. The postings of a loaded word
+ * are moved into memory once documents are added to it.
  * @author Benny Fung
  */
 public class InvertedIndex
 {
 	/**
-	 * Stores a mapping of words to the paths and the positions the words were found.
+	 * Stores a mapping of words to the documents and the positions the words were found.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	private TermDictionary<PostingList> index;
+	/**
+	 * Assigns the ids of the documents stored in the postings.
+	 */
+	private final DocumentTable documents;
+	/**
+	 * Number of deleted documents whose postings were reclaimed by the last compaction.
+	 */
+	private int purged;
+	/**
+	 * Postings kept in a loaded index file, or null if none was loaded.
+	 */
+	private MappedPostings mapped;
 	/**
 	 * Initializes the index.
 	 */
 	public InvertedIndex()
 	{
-		index = new TreeMap<String, TreeMap<String, TreeSet<Integer>>>();
+		this(new DocumentTable());
+	}
+	
+	/**
+	 * Initializes the index using an existing document table, so the ids of
+	 * documents added to this index match the ids of other indexes sharing the
+	 * same table.
+	 * 
+	 * @param documents
+	 * 			document table to use
+	 */
+	public InvertedIndex(DocumentTable documents)
+	{
+		index = new TermDictionary<PostingList>();
+		this.documents = documents;
+		this.purged = 0;
+		this.mapped = null;
+	}
+	
+	/**
+	 * Returns the document table used to assign document ids.
+	 * 
+	 * @return document table of this index
+	 */
+	public DocumentTable documents()
+	{
+		return documents;
 	}
 	
 	/**
@@ -36,16 +85,82 @@ public class InvertedIndex
 	 */
 	public void add(String word, String path, int position)
 	{			
-		if (!index.containsKey(word))
+		positions(word, documents.add(path)).add(position);
+	}
+	
+	/**
+	 * Adds the word and the id of the document as well as the position it was found to the index.
+	 * 
+	 * @param word
+	 * 			takes in a word to add
+	 * @param document
+	 * 			takes in the id of the document, assigned by {@link #documents()}
+	 * @param position 
+	 * 			takes in the position of the word and document to add
+	 */
+	public void add(String word, int document, int position)
+	{
+		positions(word, document).add(position);
+	}
+	
+	/**
+	 * Returns the position list for the word and document, creating it if needed.
+	 * 
+	 * @param word
+	 * 			word to look up
+	 * @param document
+	 * 			id of the document to look up
+	 * @return position list stored for the word and document
+	 */
+	private PositionList positions(String word, int document)
+	{
+		PostingList postings = stored(word);
+		if (postings == null)
 		{
-			index.put(word, new TreeMap<String, TreeSet<Integer>>());
+			postings = new PostingList();
+			index.put(word, postings);
 		}
-		
-		if (!index.get(word).containsKey(path))
+		return postings.positions(document);
+	}
+	
+	/**
+	 * Returns the postings of a word kept in memory, so they can be changed.
+	 * Postings only found in a loaded index file are moved into memory first.
+	 * 
+	 * @param word
+	 * 			word to look up
+	 * @return postings of the word, or null if the word is not stored
+	 */
+	private PostingList stored(String word)
+	{
+		PostingList postings = index.get(word);
+		if (postings == null && mapped != null)
 		{
-			index.get(word).put(path, new TreeSet<Integer>());
+			postings = mapped.take(word);
+			if (postings != null)
+			{
+				index.put(word, postings);
+			}
 		}
-		index.get(word).get(path).add(position);
+		return postings;
+	}
+	
+	/**
+	 * Returns the postings of a word, decoding them if they are only found in
+	 * a loaded index file. The postings must not be changed.
+	 * 
+	 * @param word
+	 * 			word to look up
+	 * @return postings of the word, or null if the word is not stored
+	 */
+	private PostingList find(String word)
+	{
+		PostingList postings = index.get(word);
+		if (postings == null && mapped != null)
+		{
+			postings = mapped.get(word);
+		}
+		return postings;
 	}
 	
 	/**
@@ -57,47 +172,78 @@ public class InvertedIndex
 	 */
 	public ArrayList<SearchResult> exactSearch(String[] words)
 	{
-		HashMap<String, SearchResult> searchMap = new HashMap<>();
-		ArrayList<SearchResult> exactSearchResults = new ArrayList<SearchResult>();
-		
+		return exact(words, 0);
+	}
+	
+	/**
+	 * search method that takes in a query and searches through the index for an exact match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best exact search results
+	 */
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		return exact(words, limit);
+	}
+	
+	/**
+	 * Searches the index for an exact match.
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of sorted exact search results
+	 */
+	private ArrayList<SearchResult> exact(String[] words, int limit)
+	{
+		ScoreAccumulator accumulator = ScoreAccumulator.local();
+		accumulator.reset(documents.size());
+		accumulateExact(words, accumulator);
+		return accumulator.results(documents, limit);
+	}
+	
+	/**
+	 * Adds the documents matching the words exactly to an accumulator, so the
+	 * matches of several indexes sharing a document table can be combined.
+	 * @param words
+	 * 			each individual query
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
+	 */
+	protected void accumulateExact(String[] words, ScoreAccumulator accumulator)
+	{
 		for (String word : words)
 		{
-			if (index.containsKey(word))
+			PostingList postings = index.get(word);
+			if (postings != null)
 			{	
-				searchHelper(word, exactSearchResults, searchMap);
+				searchHelper(postings, accumulator);
+			}
+			else if (mapped != null)
+			{
+				mapped.accumulate(word, accumulator);
 			}
 		}
-		Collections.sort(exactSearchResults);
-		return exactSearchResults;
 	}
 	
 	/**
 	 * searchHelper for the partialSearchResults method
-	 * @param word
-	 * 			word to input
-	 * @param searchResults
-	 * 			the searchResults ArrayLists 
-	 * @param searchMap
-	 * 			the hashMap of SearchResults
+	 * @param postings
+	 * 			postings of the word to input
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
 	 */
-	private void searchHelper(String word, ArrayList<SearchResult> searchResults, HashMap<String, SearchResult> searchMap)
+	private static void searchHelper(PostingList postings, ScoreAccumulator accumulator)
 	{
-		TreeMap<String, TreeSet<Integer>> pathAndPositions = index.get(word);
-		for (String path : pathAndPositions.keySet())
+		for (int i = 0; i < postings.size(); i++)
 		{
-			TreeSet<Integer> positions = pathAndPositions.get(path);
-			int frequency = positions.size();
-			int initialPosition = positions.first();
-			
-			if (searchMap.containsKey(path))
-			{
-				searchMap.get(path).update(frequency, initialPosition);
-			}
-			else
-			{
-				searchMap.put(path, new SearchResult(path, frequency, initialPosition));
-				searchResults.add(searchMap.get(path));
-			}
+			PositionList positions = postings.positionsAt(i);
+			accumulator.add(postings.documentAt(i), positions.size(), positions.first());
 		}
 	}
 	
@@ -110,30 +256,65 @@ public class InvertedIndex
 	 */
 	public ArrayList<SearchResult> partialSearch(String words[])
 	{
-		HashMap<String, SearchResult> searchMap = new HashMap<>();
-		ArrayList<SearchResult> partialSearchResults = new ArrayList<SearchResult>();
-		
+		return partial(words, 0);
+	}
+	
+	/**
+	 * search method that takes in a query and searches through the index for a partial match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best partial search results
+	 */
+	public ArrayList<SearchResult> partialSearch(String words[], int limit)
+	{
+		return partial(words, limit);
+	}
+	
+	/**
+	 * Searches the index for a partial match.
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of sorted partial search results
+	 */
+	private ArrayList<SearchResult> partial(String words[], int limit)
+	{
+		ScoreAccumulator accumulator = ScoreAccumulator.local();
+		accumulator.reset(documents.size());
+		accumulatePartial(words, accumulator);
+		return accumulator.results(documents, limit);
+	}
+	
+	/**
+	 * Adds the documents matching the start of the words to an accumulator, so
+	 * the matches of several indexes sharing a document table can be combined.
+	 * @param words
+	 * 			each individual query
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
+	 */
+	protected void accumulatePartial(String[] words, ScoreAccumulator accumulator)
+	{
 		for (String partialWord : words)
 		{
-			for (String word : index.tailMap(partialWord).keySet())
-			{	
-				if (word.startsWith(partialWord))
-				{
-					searchHelper(word, partialSearchResults, searchMap);
-				}
-				else
-				{
-					break;
-				}
+			index.forEachPrefix(partialWord, postings -> searchHelper(postings, accumulator));
+			if (mapped != null)
+			{
+				mapped.accumulatePrefix(partialWord, accumulator);
 			}
 		}
-		Collections.sort(partialSearchResults);
-		return partialSearchResults;
 	}
 
 	/**
 	 * Adds the array of words at once, assuming the first word in the array is
-	 * at position 1.
+	 * at position 1. The position lists of the document are sealed once all of
+	 * the words have been added.
 	 *
 	 * @param words
 	 *            array of words to add
@@ -142,43 +323,206 @@ public class InvertedIndex
 	 */
 	public void addAll(String[] words, Path path)
 	{
+		addDocument(words, documents.add(path.toString()));
+	}
+	
+	/**
+	 * Adds the array of words at once for the document id, assuming the first
+	 * word in the array is at position 1.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param document
+	 *            id of the document, assigned by {@link #documents()}
+	 */
+	public void addAll(String[] words, int document)
+	{
+		addDocument(words, document);
+	}
+	
+	/**
+	 * Removes a document from the index. Its id is marked as deleted right
+	 * away, and its postings are reclaimed by the next {@link #compact()}.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @return true if the document was in the document table
+	 */
+	public boolean remove(String path)
+	{
+		return documents.remove(path) >= 0;
+	}
+	
+	/**
+	 * Replaces the words of a document, assuming the first word in the array
+	 * is at position 1. The old document is removed and the words are added
+	 * under a new id for the same path, so the old postings are never mixed
+	 * with the new ones.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @param words
+	 *            array of words to add
+	 */
+	public void replace(String path, String[] words)
+	{
+		documents.remove(path);
+		addAll(words, documents.add(path));
+	}
+	
+	/**
+	 * Adds the words of cleaned text for the document id as they are parsed by
+	 * {@link WordParser#parseWords(String, java.util.function.ObjIntConsumer)},
+	 * without splitting the text into an array of words first. The position
+	 * lists of the document are sealed once all of the words have been added.
+	 *
+	 * @param text
+	 *            text to parse and add
+	 * @param document
+	 *            id of the document, assigned by {@link #documents()}
+	 */
+	public void addText(String text, int document)
+	{
+		HashMap<String, PositionList> lists = new HashMap<>();
+		WordParser.parseWords(text, (word, position) -> positions(lists, word, document).add(position));
+		seal(lists);
+	}
+	
+	/**
+	 * Adds the words of a document and seals its position lists once all of
+	 * the words have been added.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param document
+	 *            id of the document
+	 */
+	private void addDocument(String[] words, int document)
+	{
+		HashMap<String, PositionList> lists = new HashMap<>();
 		int position = 1;
 		for (String i : words)
 		{
-			add(i, path.toString(), position);
+			positions(lists, i, document).add(position);
 			position++;
 		}
+		seal(lists);
+	}
+	
+	/**
+	 * Returns the position list for the word and document, remembering it in
+	 * the lists of the document being added.
+	 *
+	 * @param lists
+	 *            position lists of the document so far
+	 * @param word
+	 *            word to look up
+	 * @param document
+	 *            id of the document
+	 * @return position list stored for the word and document
+	 */
+	private PositionList positions(HashMap<String, PositionList> lists, String word, int document)
+	{
+		PositionList positions = lists.get(word);
+		if (positions == null)
+		{
+			positions = positions(word, document);
+			lists.put(word, positions);
+		}
+		return positions;
+	}
+	
+	/**
+	 * Seals the position lists of a document once all of its words were added.
+	 *
+	 * @param lists
+	 *            position lists of the document
+	 */
+	private static void seal(HashMap<String, PositionList> lists)
+	{
+		for (PositionList positions : lists.values())
+		{
+			positions.seal();
+		}
 	}
 
 	/**
-	 * addAll method for the multithreaded invertedindex
+	 * addAll method for the multithreaded invertedindex. The other index is
+	 * meant to be thrown away afterwards, so its position lists are sealed and
+	 * shared rather than copied. Document ids are translated if the other index
+	 * does not share this index's document table. If the other index was
+	 * loaded from an index file and this one was not, the postings of the file
+	 * are kept in the file rather than copied.
 	 * @param other
 	 */
 	public void addAll(InvertedIndex other)
 	{
-		for (String word : other.index.keySet())
+		int[] remap = null;
+		if (other.documents != this.documents)
+		{
+			remap = other.remap(this.documents);
+		}
+		
+		Iterable<Map.Entry<String, PostingList>> added = other.livePostings();
+		if (remap == null && mapped == null && other.mapped != null)
 		{
-			if (this.index.containsKey(word) == false)
+			mapped = other.mapped;
+			for (Map.Entry<String, PostingList> entry : index)
 			{
-				this.index.put(word, other.index.get(word));
+				PostingList loaded = mapped.take(entry.getKey());
+				if (loaded != null)
+				{
+					loaded.addAll(entry.getValue(), null);
+					index.put(entry.getKey(), loaded);
+				}
+			}
+			added = live(other.index, documents);
+		}
+		
+		for (Map.Entry<String, PostingList> entry : added)
+		{
+			PostingList others = entry.getValue();
+			for (int i = 0; i < others.size(); i++)
+			{
+				others.positionsAt(i).seal();
+			}
+			
+			PostingList postings = stored(entry.getKey());
+			if (postings == null && remap == null)
+			{
+				this.index.put(entry.getKey(), others);
 			}
 			else
 			{
-				for (String path : other.index.get(word).keySet())
-				{	
-					if (!this.index.get(word).keySet().contains(path))
-					{
-						this.index.get(word).put(path, other.index.get(word).get(path));						
-					}
-					else
-					{
-						this.index.get(word).get(path).addAll(other.index.get(word).get(path));
-					}
+				if (postings == null)
+				{
+					postings = new PostingList();
+					this.index.put(entry.getKey(), postings);
 				}
+				postings.addAll(others, remap);
 			}
 		}
 	}
 	
+	/**
+	 * Maps the document ids of this index to the ids of the same paths in
+	 * another document table, adding the paths that are missing.
+	 * 
+	 * @param table
+	 * 			document table to map to
+	 * @return id in the other table of every id of this index, or -1 for
+	 * 			deleted documents
+	 */
+	protected int[] remap(DocumentTable table)
+	{
+		int[] remap = new int[documents.size()];
+		for (int i = 0; i < remap.length; i++)
+		{
+			remap[i] = documents.isDeleted(i) ? -1 : table.add(documents.path(i));
+		}
+		return remap;
+	}
+	
 	/**
 	 * calls JSONWriter method "asNestedObject" to convert raw data structure to JSON format
 	 * 
@@ -188,21 +532,219 @@ public class InvertedIndex
 	 */
 	public void writeToJSON(Path path) throws IOException
 	{		
-		JSONWriter.asDoubleNestedObject(index, path);
+		JSONWriter.asDoubleNestedObject(livePostings(), documents, path);
+	}
+	
+	/**
+	 * Writes the index to JSON, rendering ranges of words in parallel with the
+	 * work queue. The output is the same as {@link #writeToJSON(Path)}.
+	 * 
+	 * @param path
+	 * 			path to add
+	 * @param queue
+	 * 			work queue used to render the words, or null to use this thread
+	 * @throws IOException
+	 */
+	public void writeToJSON(Path path, WorkQueue queue) throws IOException
+	{
+		JSONWriter.asDoubleNestedObject(livePostings(), documents, path, queue);
+	}
+	
+	/**
+	 * Saves the index to a binary file that can be loaded with {@link #load(Path)}.
+	 * 
+	 * @param path
+	 * 			file to write to
+	 * @throws IOException
+	 * 
+	 * @see IndexFile
+	 */
+	public void save(Path path) throws IOException
+	{
+		IndexFile.write(livePostings(), documents, path);
 	}
 	
 	/**
-	 * Returns the number of words stored in the index.
+	 * Loads a binary index file and adds its words to this index.
+	 * 
+	 * @param path
+	 * 			file to read from
+	 * @throws IOException
+	 * 
+	 * @see IndexFile
+	 */
+	public void load(Path path) throws IOException
+	{
+		IndexFile.read(path, this);
+	}
+	
+	/**
+	 * Returns the words of the index mapped to their postings, in sorted order.
+	 * Used to write and merge the index.
+	 * 
+	 * @return words and postings of the index
+	 */
+	protected Iterable<Map.Entry<String, PostingList>> postings()
+	{
+		return mapped == null ? index : mapped.merge(index);
+	}
+	
+	/**
+	 * Keeps the postings of a loaded index file in the file rather than in
+	 * memory. Used by {@link IndexFile} on an index with no words yet.
+	 * 
+	 * @param postings
+	 * 			postings of the file
+	 */
+	protected void map(MappedPostings postings)
+	{
+		mapped = postings;
+	}
+	
+	/**
+	 * Seals the position lists of every word kept in memory. The postings of
+	 * a loaded index file are sealed already.
+	 */
+	protected void seal()
+	{
+		for (Map.Entry<String, PostingList> entry : index)
+		{
+			PostingList postings = entry.getValue();
+			for (int i = 0; i < postings.size(); i++)
+			{
+				postings.positionsAt(i).seal();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the words of the index mapped to their postings without the
+	 * deleted documents, in sorted order. Words found only in deleted
+	 * documents are left out. Used to write and copy the index.
+	 * 
+	 * @return words and postings of the live documents of the index
+	 */
+	protected Iterable<Map.Entry<String, PostingList>> livePostings()
+	{
+		return live(postings(), documents);
+	}
+	
+	/**
+	 * Leaves the deleted documents out of the postings of words, and the
+	 * words found only in deleted documents.
+	 * 
+	 * @param postings
+	 * 			words and postings, in sorted order
+	 * @param documents
+	 * 			document table the postings refer to
+	 * @return words and postings of the live documents
+	 */
+	protected static Iterable<Map.Entry<String, PostingList>> live(Iterable<Map.Entry<String, PostingList>> postings, DocumentTable documents)
+	{
+		if (documents.deleted() == 0)
+		{
+			return postings;
+		}
+		
+		return () -> new Iterator<Map.Entry<String, PostingList>>()
+		{
+			private final Iterator<Map.Entry<String, PostingList>> iterator = postings.iterator();
+			private Map.Entry<String, PostingList> next = advance();
+			
+			private Map.Entry<String, PostingList> advance()
+			{
+				while (iterator.hasNext())
+				{
+					Map.Entry<String, PostingList> entry = iterator.next();
+					PostingList live = entry.getValue().live(documents);
+					if (live == entry.getValue())
+					{
+						return entry;
+					}
+					if (live != null)
+					{
+						return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), live);
+					}
+				}
+				return null;
+			}
+			
+			@Override
+			public boolean hasNext()
+			{
+				return next != null;
+			}
+			
+			@Override
+			public Map.Entry<String, PostingList> next()
+			{
+				if (next == null)
+				{
+					throw new NoSuchElementException();
+				}
+				Map.Entry<String, PostingList> entry = next;
+				next = advance();
+				return entry;
+			}
+		};
+	}
+	
+	/**
+	 * Stores the postings of a word, replacing any postings already stored for
+	 * it. Used to build an index from postings merged somewhere else.
+	 * 
+	 * @param word
+	 * 			word to store
+	 * @param postings
+	 * 			postings of the word
+	 */
+	protected void putPostings(String word, PostingList postings)
+	{
+		index.put(word, postings);
+	}
+	
+	/**
+	 * Packs the words added since the last call into the compact term
+	 * dictionary, after reclaiming the postings of documents deleted since
+	 * the last call, and shares the sealed position lists of a single
+	 * position. Postings kept in a loaded index file are not reclaimed until
+	 * the index is saved. Should be called once the index is built, before
+	 * searching.
+	 */
+	public void compact()
+	{
+		int deleted = documents.deleted();
+		if (deleted != purged)
+		{
+			TermDictionary<PostingList> live = new TermDictionary<PostingList>();
+			for (Map.Entry<String, PostingList> entry : live(index, documents))
+			{
+				live.put(entry.getKey(), entry.getValue());
+			}
+			index = live;
+			purged = deleted;
+		}
+		for (Map.Entry<String, PostingList> entry : index)
+		{
+			entry.getValue().share();
+		}
+		index.compact();
+	}
+	
+	/**
+	 * Returns the number of words stored in the index, including words only
+	 * found in deleted documents until the index is compacted.
 	 *
 	 * @return number of words
 	 */
 	public int words()
 	{
-		return index.size();
+		return index.size() + (mapped == null ? 0 : mapped.words());
 	}
 	
 	/**
-	 * Tests whether the index contains the specified word.
+	 * Tests whether the index contains the specified word in a document that
+	 * was not removed.
 	 *
 	 * @param word
 	 *            word to look for
@@ -210,7 +752,8 @@ public class InvertedIndex
 	 */
 	public boolean contains(String word)
 	{
-		return index.containsKey(word);
+		PostingList postings = find(word);
+		return postings != null && postings.hasLive(documents);
 	}
 	
 	/**
@@ -220,7 +763,7 @@ public class InvertedIndex
 	 */
 	public int numFlags()
 	{
-		return index.size();
+		return index.size() + (mapped == null ? 0 : mapped.words());
 	}
 	
 	/**
@@ -233,7 +776,9 @@ public class InvertedIndex
 	 */
 	public boolean contains(String word, String path)
 	{
-		return index.containsKey(word) && index.get(word).containsKey(path);
+		int document = documents.id(path);
+		PostingList postings = find(word);
+		return postings != null && document >= 0 && postings.get(document) != null;
 	}
 	
 	/**
@@ -247,7 +792,10 @@ public class InvertedIndex
 	 */
 	public boolean contains(String word, String path, int position)
 	{
-		return index.containsKey(word) &&index.get(word).containsKey(path) && index.get(word).get(path).contains(position);
+		int document = documents.id(path);
+		PostingList postings = find(word);
+		PositionList positions = postings == null || document < 0 ? null : postings.get(document);
+		return positions != null && positions.contains(position);
 	}
 	
 	/**
@@ -255,6 +803,21 @@ public class InvertedIndex
 	 */
 	public String toString() 
 	{
-		return index.toString();
+		int[] ranks = documents.ranks();
+		StringBuilder builder = new StringBuilder("{");
+		for (Map.Entry<String, PostingList> entry : livePostings())
+		{
+			PostingList postings = entry.getValue();
+			builder.append(builder.length() > 1 ? ", " : "").append(entry.getKey()).append("={");
+			
+			int[] order = postings.order(ranks);
+			for (int i = 0; i < order.length; i++)
+			{
+				builder.append(i > 0 ? ", " : "");
+				builder.append(documents.path(postings.documentAt(order[i]))).append('=').append(postings.positionsAt(order[i]));
+			}
+			builder.append('}');
+		}
+		return builder.append('}').toString();
 	}
 }
\ No newline at end of file
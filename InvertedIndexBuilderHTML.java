@@ -1,7 +1,5 @@
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 
@@ -17,9 +15,11 @@ public class InvertedIndexBuilderHTML
 	 * 			path name to take in
 	 * @param index
 	 * 			takes in the inverted index data
+	 * @param manifest
+	 * 			manifest of the last build, or null to index every file
 	 * @throws IOException
 	 */
-	private static void traverse(Path path, InvertedIndex index) throws IOException
+	private static void traverse(Path path, InvertedIndex index, IndexManifest manifest) throws IOException
 	{
 		if (Files.isDirectory(path))
 		{
@@ -27,14 +27,17 @@ public class InvertedIndexBuilderHTML
 			{
 				for (Path extension : listing)
 				{	
-					traverseDirectory(extension, index);
+					traverse(extension, index, manifest);
 				}
 			}
 		}
 		
 		else if (path.toString().toLowerCase().endsWith("htm") || path.toString().toLowerCase().endsWith("html"))
 		{
-			buildIndex(path, index);
+			if (manifest == null || manifest.changed(path))
+			{
+				buildIndex(path, index);
+			}
 		}
 	}
 	
@@ -48,7 +51,26 @@ public class InvertedIndexBuilderHTML
 	 */
 	public static void traverseDirectory(Path path, InvertedIndex index) throws IOException 
 	{
-		traverse(path, index);
+		traverse(path, index, null);
+	}
+	
+	/**
+	 * Directory to traverse, only parsing the files added or changed since
+	 * the build of the manifest. The build starts from the index saved with
+	 * the manifest, which already holds the words of the unchanged files.
+	 * @param path
+	 * 			path name to take in
+	 * @param index
+	 * 			invertedindex structure
+	 * @param manifest
+	 * 			manifest of the last build, which records the files of this one
+	 * @throws IOException
+	 */
+	public static void traverseDirectory(Path path, InvertedIndex index, IndexManifest manifest) throws IOException 
+	{
+		manifest.restore(index);
+		traverse(path, index, manifest);
+		manifest.finish();
 	}
 	
 	/** Reads through the file, cleans the HTML scripts, splits, and parses every individual word, and adds it into the data structure.
@@ -61,10 +83,7 @@ public class InvertedIndexBuilderHTML
 	 */
 	public static void buildIndex(Path path, InvertedIndex index) throws IOException
 	{
-		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-		String htmlPage = String.join(" ", lines);
-		String cleaned = HTMLCleaner.stripHTML(htmlPage);
-		String[] words = WordParser.parseWords(cleaned);
-		index.addAll(words, path);
+		String cleaned = HTMLCleaner.stripHTML(path);
+		index.addText(cleaned, index.documents().add(path.toString()));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Measures how fast an index is written as JSON, both plain and compressed
+ * with gzip. The index is built from a directory or loaded from a binary
+ * index file before timing starts. With -threads, ranges of words are
+ * rendered in parallel by a work queue.
+ *
+ * Usage: JSONBenchmark (-path dir | -load file) [-rounds 3] [-threads n]
+ * @author Benny Fung
+ */
+public class JSONBenchmark
+{
+	/**
+	 * Runs the benchmark and prints the best time and throughput of each format.
+	 *
+	 * @param args
+	 * 			takes in arguments
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		ArgumentMap argument = new ArgumentMap(args);
+		int rounds = Math.max(1, argument.getInteger("-rounds", 3));
+
+		InvertedIndex index = new InvertedIndex();
+		if (argument.hasValue("-load"))
+		{
+			index.load(Paths.get(argument.getValue("-load")));
+		}
+		else if (argument.hasValue("-path"))
+		{
+			InvertedIndexBuilderHTML.traverseDirectory(Paths.get(argument.getValue("-path")), index);
+		}
+		else
+		{
+			System.out.println("Usage: JSONBenchmark (-path dir | -load file) [-rounds 3] [-threads n]");
+			return;
+		}
+		index.compact();
+
+		int threads = argument.getInteger("-threads", 0);
+		WorkQueue queue = threads > 0 ? new WorkQueue(threads) : null;
+
+		Path directory = Files.createTempDirectory("json");
+		Path plain = directory.resolve("index.json");
+		Path compressed = directory.resolve("index.json.gz");
+		try
+		{
+			long bytes = 0;
+			for (Path path : new Path[] { plain, compressed })
+			{
+				double best = Double.MAX_VALUE;
+				for (int round = 0; round < rounds; round++)
+				{
+					long start = System.nanoTime();
+					index.writeToJSON(path, queue);
+					best = Math.min(best, (System.nanoTime() - start) / 1e9);
+				}
+
+				if (path == plain)
+				{
+					bytes = Files.size(plain);
+				}
+				double megabytes = bytes / (1024.0 * 1024.0);
+				System.out.printf("%-14s %8.1f MB written %8.1f MB on disk %8.3f s %8.1f MB/s%n",
+						path.getFileName(), megabytes, Files.size(path) / (1024.0 * 1024.0), best, megabytes / best);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(plain);
+			Files.deleteIfExists(compressed);
+			Files.deleteIfExists(directory);
+			if (queue != null)
+			{
+				queue.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes JSON text as UTF-8 into a large byte buffer, which is only written
+ * out when it is full or the output is closed. ASCII text and numbers are
+ * copied straight into the buffer without creating strings, and indentation
+ * is copied from a cached run of tabs.
+ * @author Benny Fung
+ */
+public class JSONOutput implements Closeable
+{
+	/** Size of the buffer. */
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	/** Size of the buffer used by the gzip stream. */
+	private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+	/** Cached tabs used for indentation. */
+	private static final byte[] TABS = new byte[64];
+
+	static
+	{
+		Arrays.fill(TABS, (byte) '\t');
+	}
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int count;
+	private long written;
+
+	/**
+	 * Opens a file for writing, compressing it with gzip if the file name ends
+	 * with ".gz". The fastest compression level is used, since the repeated
+	 * indentation of the index still compresses well.
+	 *
+	 * @param path
+	 * 			file to write to
+	 * @throws IOException
+	 */
+	public JSONOutput(Path path) throws IOException
+	{
+		this(open(path));
+	}
+
+	/**
+	 * Writes to an output stream, which is closed along with this output.
+	 *
+	 * @param out
+	 * 			stream to write to
+	 */
+	public JSONOutput(OutputStream out)
+	{
+		this(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes to an output stream through a buffer of the given size.
+	 *
+	 * @param out
+	 * 			stream to write to
+	 * @param size
+	 * 			size of the buffer
+	 */
+	public JSONOutput(OutputStream out, int size)
+	{
+		this.out = out;
+		this.buffer = new byte[size];
+		this.count = 0;
+		this.written = 0;
+	}
+
+	/**
+	 * Opens the stream to write a file to.
+	 *
+	 * @param path
+	 * 			file to write to
+	 * @return stream to write to
+	 * @throws IOException
+	 */
+	private static OutputStream open(Path path) throws IOException
+	{
+		OutputStream stream = Files.newOutputStream(path);
+		if (path.getFileName() != null && path.getFileName().toString().endsWith(".gz"))
+		{
+			return new GZIPOutputStream(new BufferedOutputStream(stream, GZIP_BUFFER_SIZE), GZIP_BUFFER_SIZE)
+			{
+				{
+					def.setLevel(Deflater.BEST_SPEED);
+				}
+			};
+		}
+		return stream;
+	}
+
+	/**
+	 * Writes a single ASCII character.
+	 *
+	 * @param c
+	 * 			character to write
+	 * @throws IOException
+	 */
+	public void write(char c) throws IOException
+	{
+		if (count == buffer.length)
+		{
+			drain();
+		}
+		buffer[count++] = (byte) c;
+	}
+
+	/**
+	 * Writes text, encoding it as UTF-8.
+	 *
+	 * @param text
+	 * 			text to write
+	 * @throws IOException
+	 */
+	public void write(String text) throws IOException
+	{
+		int length = text.length();
+		if (length > buffer.length - count)
+		{
+			drain();
+			if (length > buffer.length)
+			{
+				write(text.getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+		}
+
+		int start = count;
+		for (int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+			if (c >= 0x80)
+			{
+				count = start;
+				write(text.getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			buffer[count++] = (byte) c;
+		}
+	}
+
+	/**
+	 * Writes bytes that are already encoded.
+	 *
+	 * @param bytes
+	 * 			bytes to write
+	 * @throws IOException
+	 */
+	public void write(byte[] bytes) throws IOException
+	{
+		if (bytes.length > buffer.length - count)
+		{
+			drain();
+			if (bytes.length > buffer.length)
+			{
+				out.write(bytes);
+				written += bytes.length;
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	/**
+	 * Writes a number in decimal.
+	 *
+	 * @param value
+	 * 			number to write
+	 * @throws IOException
+	 */
+	public void write(int value) throws IOException
+	{
+		if (buffer.length - count < 11)
+		{
+			drain();
+		}
+
+		long number = value;
+		if (number < 0)
+		{
+			buffer[count++] = '-';
+			number = -number;
+		}
+
+		int digits = 1;
+		for (long limit = 10; number >= limit && digits < 10; limit *= 10)
+		{
+			digits++;
+		}
+
+		for (int i = count + digits - 1; i >= count; i--)
+		{
+			buffer[i] = (byte) ('0' + number % 10);
+			number /= 10;
+		}
+		count += digits;
+	}
+
+	/**
+	 * Writes the specified number of tab characters.
+	 *
+	 * @param times
+	 * 			number of tab characters to write
+	 * @throws IOException
+	 */
+	public void indent(int times) throws IOException
+	{
+		while (times > 0)
+		{
+			int length = Math.min(times, TABS.length);
+			if (length > buffer.length - count)
+			{
+				drain();
+			}
+			System.arraycopy(TABS, 0, buffer, count, length);
+			count += length;
+			times -= length;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes written so far, before any compression.
+	 *
+	 * @return number of bytes
+	 */
+	public long size()
+	{
+		return written + count;
+	}
+
+	/**
+	 * Writes out the buffer and closes the stream.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			drain();
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes out the buffer to the stream without flushing the stream.
+	 *
+	 * @throws IOException
+	 */
+	private void drain() throws IOException
+	{
+		out.write(buffer, 0, count);
+		written += count;
+		count = 0;
+	}
+}
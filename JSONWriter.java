@@ -1,14 +1,16 @@
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Class that contains methods to print in JSON format
@@ -16,6 +18,9 @@ import java.util.TreeSet;
  */
 public class JSONWriter
 {		
+	/** Estimated number of bytes of JSON rendered by each worker at once. */
+	private static final long RANGE_SIZE = 4 << 20;
+	
 	/**
 	 * Returns a String with the specified number of tab characters.
 	 *
@@ -43,111 +48,284 @@ public class JSONWriter
 	}
 	
 	/**
-	 * Writes the set of elements as a JSON array at the specified indent level.
+	 * Writes the positions as a JSON array. The positions are indented once and
+	 * the closing bracket is not indented, whatever the level.
 	 *
-	 * @param writer
-	 *            writer to use for output
+	 * @param output
+	 *            output to write to
 	 * @param elements
 	 *            elements to write as JSON array
-	 * @param level
-	 *            number of times to indent the array itself
 	 * @throws IOException
 	 */
-	private static void asArray(Writer writer, TreeSet<Integer> elements, int level) throws IOException
+	private static void asArray(JSONOutput output, PositionList elements) throws IOException
 	{	
-		Iterator<Integer> iterator = elements.iterator();
-		writer.write("[");
+		PrimitiveIterator.OfInt iterator = elements.iterator();
+		output.write('[');
 		
 		if (iterator.hasNext())
 		{
-			writer.write("\n");
-			writer.write(indent(1));
-			writer.write(iterator.next().toString());
+			output.write('\n');
+			output.indent(1);
+			output.write(iterator.nextInt());
 		}
 
 		while (iterator.hasNext()) 
 		{
-			writer.write(",\n");
-			writer.write(indent(1));
-			writer.write(iterator.next().toString());
+			output.write(',');
+			output.write('\n');
+			output.indent(1);
+			output.write(iterator.nextInt());
 		}
 
-		writer.write("\n");
-		writer.write(']');
-		writer.flush();
+		output.write('\n');
+		output.write(']');
 	}
 	
 	/**
-	 * Writes the set of elements as a JSON object with a nested array to the
-	 * path using UTF8.
+	 * Writes the postings as a JSON object with a nested array, listing the
+	 * documents sorted by path.
+	 *
+	 * @param elements
+	 *            elements to write as a JSON object with a nested array
+	 * @param paths
+	 *            quoted path and colon of every document, encoded as UTF-8
+	 * @param ranks
+	 *            rank of every document when sorted by path
+	 * @param output
+	 *            output to write to
+	 * @param level
+	 *            number of times to indent the documents
+	 * @throws IOException
+	 */
+	private static void asNestedObject(PostingList elements, byte[][] paths, int[] ranks, JSONOutput output, int level) throws IOException 
+	{
+		int[] order = elements.order(ranks);
+		for (int i = 0; i < order.length; i++)
+		{
+			output.indent(level);
+			output.write(paths[elements.documentAt(order[i])]);
+			asArray(output, elements.positionsAt(order[i]));
+			
+			if (i < order.length - 1)
+			{
+				output.write(',');
+			}
+			output.write('\n');
+		}
+	}
+	
+	/**
+	 * Writes the set of elements as a JSON object with a double nested array to the
+	 * path using UTF8. The file is compressed with gzip if its name ends with ".gz".
+	 *
+	 * @param elements
+	 *            elements to write as a JSON object with a nested array
+	 * @param documents
+	 *            document table used to look up the paths of the postings
+	 * @param path
+	 *            path to write file
+	 * @throws IOException
+	 */
+	public static void asDoubleNestedObject(Iterable<Map.Entry<String, PostingList>> elements, DocumentTable documents, Path path) throws IOException
+	{
+		asDoubleNestedObject(elements, documents, path, null);
+	}
+	
+	/**
+	 * Writes the set of elements as a JSON object with a double nested array to the
+	 * path using UTF8. If a work queue is given, the words are split into ranges
+	 * that are rendered by the workers in parallel and written in order, so the
+	 * file is the same as when it is written by one thread.
 	 *
 	 * @param elements
 	 *            elements to write as a JSON object with a nested array
+	 * @param documents
+	 *            document table used to look up the paths of the postings
 	 * @param path
 	 *            path to write file
+	 * @param queue
+	 *            work queue used to render ranges of words, or null to write
+	 *            everything in this thread
 	 * @throws IOException
 	 */
-	private static void asNestedObject(TreeMap<String, TreeSet<Integer>> elements, BufferedWriter writer, int level) throws IOException 
+	public static void asDoubleNestedObject(Iterable<Map.Entry<String, PostingList>> elements, DocumentTable documents, Path path, WorkQueue queue) throws IOException
 	{
-		int bracketCommaCount = 0;
-		for (String i : elements.keySet())
+		try (JSONOutput output = new JSONOutput(path))
 		{
-			writer.write(indent(level));
-			writer.write(quote(i) + ": ");
-			if (elements.isEmpty())
+			if (queue == null)
 			{
-				asArray(writer, elements.get(i), 0);
+				asDoubleNestedObject(elements, documents, output);
+			}
+			else
+			{
+				asDoubleNestedObject(elements, documents, output, queue);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the set of elements as a JSON object with a double nested array.
+	 *
+	 * @param elements
+	 *            elements to write as a JSON object with a nested array
+	 * @param documents
+	 *            document table used to look up the paths of the postings
+	 * @param output
+	 *            output to write to
+	 * @throws IOException
+	 */
+	public static void asDoubleNestedObject(Iterable<Map.Entry<String, PostingList>> elements, DocumentTable documents, JSONOutput output) throws IOException
+	{
+		int[] ranks = documents.ranks();
+		byte[][] paths = quotedPaths(documents, ranks.length);
+		
+		output.write("{\n");
+		asWords(elements, true, paths, ranks, output);
+		output.write("\n}");
+	}
+	
+	/**
+	 * Writes the set of elements as a JSON object with a double nested array,
+	 * rendering ranges of words in parallel. At most two ranges per worker are
+	 * kept in memory at once.
+	 *
+	 * @param elements
+	 *            elements to write as a JSON object with a nested array
+	 * @param documents
+	 *            document table used to look up the paths of the postings
+	 * @param output
+	 *            output to write to
+	 * @param queue
+	 *            work queue used to render ranges of words
+	 * @throws IOException
+	 */
+	public static void asDoubleNestedObject(Iterable<Map.Entry<String, PostingList>> elements, DocumentTable documents, JSONOutput output, WorkQueue queue) throws IOException
+	{
+		int[] ranks = documents.ranks();
+		byte[][] paths = quotedPaths(documents, ranks.length);
+		ArrayDeque<Range> pending = new ArrayDeque<>();
+		int limit = 2 * Math.max(1, queue.size());
+		
+		output.write("{\n");
+		ArrayList<Map.Entry<String, PostingList>> words = new ArrayList<>();
+		long estimate = 0;
+		boolean first = true;
+		for (Map.Entry<String, PostingList> entry : elements)
+		{
+			PostingList postings = entry.getValue();
+			if (postings.size() == 0)
+			{
+				continue;
 			}
 			
-			asArray(writer, elements.get(i), level);
-			
+			words.add(entry);
+			estimate += entry.getKey().length() + 8;
+			for (int i = 0; i < postings.size(); i++)
+			{
+				estimate += paths[postings.documentAt(i)].length + 8 + 8L * postings.positionsAt(i).size();
+			}
 			
-			while (bracketCommaCount < elements.size() - 1)
+			if (estimate >= RANGE_SIZE)
 			{
-				bracketCommaCount++;
-				writer.write(",");
-				break;
+				submit(new Range(words, first, paths, ranks), queue, pending, limit, output);
+				words = new ArrayList<>();
+				estimate = 0;
+				first = false;
 			}
-			writer.write("\n");
 		}
-		writer.flush();
+		
+		if (!words.isEmpty())
+		{
+			submit(new Range(words, first, paths, ranks), queue, pending, limit, output);
+		}
+		while (!pending.isEmpty())
+		{
+			output.write(pending.poll().bytes());
+		}
+		output.write("\n}");
 	}
 	
-	@SuppressWarnings("unused")
 	/**
-	 * Writes the set of elements as a JSON object with a double nested array to the
-	 * path using UTF8.
+	 * Starts rendering a range of words, first writing out the oldest ranges
+	 * if too many are pending.
+	 *
+	 * @param range
+	 *            range of words to render
+	 * @param queue
+	 *            work queue used to render the range
+	 * @param pending
+	 *            ranges not written yet, in order
+	 * @param limit
+	 *            maximum number of pending ranges
+	 * @param output
+	 *            output to write to
+	 * @throws IOException
+	 */
+	private static void submit(Range range, WorkQueue queue, ArrayDeque<Range> pending, int limit, JSONOutput output) throws IOException
+	{
+		while (pending.size() >= limit)
+		{
+			output.write(pending.poll().bytes());
+		}
+		pending.add(range);
+		queue.execute(range);
+	}
+	
+	/**
+	 * Writes words and their postings as members of a JSON object.
 	 *
 	 * @param elements
-	 *            elements to write as a JSON object with a nested array
-	 * @param path
-	 *            path to write file
+	 *            words and postings to write
+	 * @param first
+	 *            whether the first word is the first member of the object
+	 * @param paths
+	 *            quoted path and colon of every document, encoded as UTF-8
+	 * @param ranks
+	 *            rank of every document when sorted by path
+	 * @param output
+	 *            output to write to
 	 * @throws IOException
 	 */
-	public static void asDoubleNestedObject(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements, Path path) throws IOException
+	private static void asWords(Iterable<Map.Entry<String, PostingList>> elements, boolean first, byte[][] paths, int[] ranks, JSONOutput output) throws IOException
 	{
-		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+		for (Map.Entry<String, PostingList> entry : elements)
 		{
-			int count = 0;
-			writer.write("{\n");
-			for (String word : elements.keySet())
+			if (entry.getValue().size() > 0)
 			{
-				writer.write(indent(1) + quote(word) + ": {\n");
-				for (String extension : elements.get(word).keySet())
+				if (!first)
 				{
-					JSONWriter.asNestedObject(elements.get(word), writer, 2);
-					writer.write(indent(1) + "}");
-					while (count < elements.size()-1)
-					{
-						count++;
-						writer.write(",\n");
-						break;
-					}
-					break;
+					output.write(",\n");
 				}
+				first = false;
+				output.indent(1);
+				output.write('"');
+				output.write(entry.getKey());
+				output.write("\": {\n");
+				asNestedObject(entry.getValue(), paths, ranks, output, 2);
+				output.indent(1);
+				output.write('}');
 			}
-			writer.write("\n}");
-		 }
+		}
+	}
+	
+	/**
+	 * Encodes the quoted path and colon of every document once, so they do
+	 * not have to be looked up and encoded for every posting.
+	 *
+	 * @param documents
+	 *            document table used to look up the paths
+	 * @param count
+	 *            number of documents
+	 * @return quoted path and colon of every document, encoded as UTF-8
+	 */
+	private static byte[][] quotedPaths(DocumentTable documents, int count)
+	{
+		byte[][] paths = new byte[count][];
+		for (int i = 0; i < count; i++)
+		{
+			paths[i] = (quote(documents.path(i)) + ": ").getBytes(StandardCharsets.UTF_8);
+		}
+		return paths;
 	}
 	
 	/**
@@ -223,4 +401,84 @@ public class JSONWriter
 			writer.write("\n]");
 		}
 	}
+	
+	/**
+	 * Renders a range of words into its own buffer.
+	 */
+	private static class Range implements Runnable
+	{
+		private final ArrayList<Map.Entry<String, PostingList>> words;
+		private final boolean first;
+		private final byte[][] paths;
+		private final int[] ranks;
+		private byte[] bytes;
+		private Throwable error;
+		private boolean done;
+		
+		public Range(ArrayList<Map.Entry<String, PostingList>> words, boolean first, byte[][] paths, int[] ranks)
+		{
+			this.words = words;
+			this.first = first;
+			this.paths = paths;
+			this.ranks = ranks;
+			this.done = false;
+		}
+		
+		@Override
+		public void run()
+		{
+			byte[] rendered = null;
+			Throwable failure = null;
+			try
+			{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				try (JSONOutput output = new JSONOutput(buffer, 1 << 16))
+				{
+					asWords(words, first, paths, ranks, output);
+				}
+				rendered = buffer.toByteArray();
+			}
+			catch (Throwable e)
+			{
+				// any failure, even an error, has to reach the waiting writer
+				failure = e;
+			}
+			
+			synchronized (this)
+			{
+				bytes = rendered;
+				error = failure;
+				done = true;
+				notifyAll();
+			}
+		}
+		
+		/**
+		 * Waits for the range to be rendered.
+		 * 
+		 * @return rendered JSON of the range
+		 * @throws IOException if the range could not be rendered
+		 */
+		public synchronized byte[] bytes() throws IOException
+		{
+			while (!done)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while writing JSON");
+				}
+			}
+			
+			if (error != null)
+			{
+				throw new IOException("Unable to write JSON", error);
+			}
+			return bytes;
+		}
+	}
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
@@ -8,15 +9,24 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public class LinkParser 
 {
+	private static final Logger logger = LogManager.getLogger();
 
 	// https://developer.mozilla.org/en-US/docs/Web/HTML/Element/a
 	// https://docs.oracle.com/javase/tutorial/networking/urls/creatingUrls.html
@@ -32,6 +42,13 @@ public class LinkParser
 	public static enum HTTP {
 		OPTIONS, GET, HEAD, POST, PUT, DELETE, TRACE, CONNECT
 	};
+	
+	/** Most bytes of a page read by {@link #fetchHTML(URL)}. */
+	public static final long MAX_BODY = 8 << 20;
+	
+	/** Keep-alive connections reused by {@link #fetchLines(URL, HTTP)}. */
+	private static final ConnectionPool pool = new ConnectionPool();
+	
 	/**
 	 * Removes the fragment component of a URL (if present), and properly
 	 * encodes the query string (if necessary).
@@ -68,8 +85,7 @@ public class LinkParser
 	public static Map<String, String> getHeaderFields(String url) throws UnknownHostException, MalformedURLException, IOException
 	{
 		URL target = new URL(url);
-		String request = craftHTTPRequest(target, HTTP.HEAD);
-		List<String> lines = fetchLines(target, request);
+		List<String> lines = fetchLines(target, HTTP.HEAD);
 
 		return parseHeaders(lines);
 	}
@@ -77,7 +93,8 @@ public class LinkParser
 	/**
 	 * Helper method that parses HTTP headers into a map where the key is the
 	 * field name and the value is the field value. The status code will be
-	 * stored under the key "Status".
+	 * stored under the key "Status". HTTP/1.0 responses are parsed the same
+	 * way.
 	 *
 	 * @param headers
 	 *            - HTTP/1.1 header lines
@@ -88,7 +105,7 @@ public class LinkParser
 	{
 		Map<String, String> fields = new HashMap<>();
 
-		if (headers.size() > 0 && headers.get(0).startsWith(version))
+		if (headers.size() > 0 && headers.get(0).startsWith("HTTP/") && headers.get(0).length() >= version.length())
 		{
 			fields.put("Status", headers.get(0).substring(version.length()).trim());
 
@@ -147,6 +164,54 @@ public class LinkParser
 		return lines;
 	}
 	
+	/**
+	 * Fetches the URL over a keep-alive connection from the connection pool,
+	 * returning the same lines as {@link #fetchLines(URL, String)}: the status
+	 * line and headers, an empty line, and the lines of the body. The body is
+	 * read up to its Content-Length or last chunk, so the connection can be
+	 * reused afterwards unless the server asked to close it.
+	 *
+	 * @see HTTPResponse
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param type
+	 *            - HTTP method to use
+	 *
+	 * @return the lines read from the web server
+	 *
+	 * @throws IOException
+	 * @throws UnknownHostException
+	 */
+	public static List<String> fetchLines(URL url, HTTP type) throws UnknownHostException, IOException
+	{
+		try (HTTPResponse response = HTTPResponse.open(pool, url, type))
+		{
+			ArrayList<String> lines = new ArrayList<>(response.headers());
+			lines.add("");
+
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8)))
+			{
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					lines.add(line);
+				}
+			}
+			return lines;
+		}
+	}
+	
+	/**
+	 * Closes the keep-alive connections left open by earlier fetches. Should
+	 * be called once a crawl is over, so the sockets are not held until the
+	 * program exits.
+	 */
+	public static void closeConnections()
+	{
+		pool.clear();
+	}
+	
 	/**
 	 * Crafts a minimal HTTP/1.1 request for the provided method.
 	 *
@@ -168,7 +233,57 @@ public class LinkParser
 		// versus a carriage return!
 		return String.format("%s %s %s\r\n" + "Host: %s\r\n" + "Connection: close\r\n" + "\r\n", type.name(), resource, version, host);
 	}
+	
+	/**
+	 * Crafts a minimal HTTP/1.1 request for the provided method, asking to
+	 * keep the connection open if requested.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param type
+	 *            - HTTP method to use
+	 * @param keepAlive
+	 *            - whether to ask the server to keep the connection open
+	 *
+	 * @return HTTP/1.1 request
+	 */
+	public static String craftHTTPRequest(URL url, HTTP type, boolean keepAlive) 
+	{
+		if (!keepAlive)
+		{
+			return craftHTTPRequest(url, type);
+		}
 
+		String host = url.getHost();
+		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
+		return String.format("%s %s %s\r\n" + "Host: %s\r\n" + "Connection: keep-alive\r\n" + "\r\n", type.name(), resource, version, host);
+	}
+
+	/**
+	 * Crafts a minimal HTTP/1.1 keep-alive request for the provided method
+	 * with extra request headers, such as the validators of a conditional
+	 * request.
+	 *
+	 * @param url
+	 *            - url to fetch
+	 * @param type
+	 *            - HTTP method to use
+	 * @param headers
+	 *            - extra request headers by name
+	 *
+	 * @return HTTP/1.1 request
+	 */
+	public static String craftHTTPRequest(URL url, HTTP type, Map<String, String> headers) 
+	{
+		String request = craftHTTPRequest(url, type, true);
+		StringBuilder builder = new StringBuilder(request.substring(0, request.length() - 2));
+		for (Map.Entry<String, String> header : headers.entrySet())
+		{
+			builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		return builder.append("\r\n").toString();
+	}
+	
 
 	/**
 	 * Fetches the HTML (without any HTTP headers) for the provided URL. Will
@@ -178,39 +293,216 @@ public class LinkParser
 	 *            url to fetch HTML from
 	 * @return HTML as a String or null if the link was not HTML
 	 */
-	
 	public static String fetchHTML(URL url)
 	{
+		return fetchHTML(url, MAX_BODY);
+	}
 
-		String request = craftHTTPRequest(url, HTTP.GET);
-		List<String> lines = null;
-		try
+	/**
+	 * Fetches the HTML (without any HTTP headers) for the provided URL, reading
+	 * at most the given number of bytes of it. The Content-Type is checked
+	 * before the body is read, so nothing but the headers is downloaded for a
+	 * link that is not HTML. The body is decoded straight into the returned
+	 * text, with every line terminator but a final one replaced by the line
+	 * separator as if its lines were joined.
+	 *
+	 * @param url
+	 *            url to fetch HTML from
+	 * @param limit
+	 *            most bytes of the body to read; longer pages are dropped
+	 * @return HTML as a String or null if the link was not HTML, was too long
+	 *         or could not be fetched
+	 */
+	public static String fetchHTML(URL url, long limit)
+	{
+		try (HTTPResponse response = HTTPResponse.open(pool, url, HTTP.GET))
 		{
-			lines = fetchLines(url, request);
+			return readHTML(url, parseHeaders(response.headers()), response.body(), limit);
 		}
 		catch (IOException e)
 		{
-			System.out.println();
+			logger.debug("Unable to fetch " + url + ": " + e);
 		}
 
-		int start = 0;
-		int end = lines.size();
+		return null;
+	}
 
-		// Determines start of HTML versus headers.
-		while (!lines.get(start).trim().isEmpty() && start < end) {
-			start++;
+	/**
+	 * Fetches the HTML for the provided URL like {@link #fetchHTML(URL)}, but
+	 * sends extra request headers and hands back the response headers. A
+	 * conditional request for a page that did not change gets a "304 Not
+	 * Modified" response without a body.
+	 *
+	 * @param url
+	 *            url to fetch HTML from
+	 * @param request
+	 *            extra request headers by name
+	 * @param response
+	 *            filled with the response headers as returned by
+	 *            {@link #parseHeaders(List)}, including the "Status"
+	 * @return HTML as a String or null if the response has no HTML body
+	 */
+	public static String fetchHTML(URL url, Map<String, String> request, Map<String, String> response)
+	{
+		try (HTTPResponse fetched = HTTPResponse.open(pool, url, HTTP.GET, request))
+		{
+			Map<String, String> fields = parseHeaders(fetched.headers());
+			response.putAll(fields);
+			return readHTML(url, fields, fetched.body(), MAX_BODY);
 		}
-
+		catch (IOException e)
+		{
+			logger.debug("Unable to fetch " + url + ": " + e);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Looks up a header field by name, ignoring the case of the name.
+	 *
+	 * @param fields
+	 *            header fields as returned by {@link #parseHeaders(List)}
+	 * @param name
+	 *            name of the field
+	 * @return value of the field, or null if it is missing
+	 */
+	public static String header(Map<String, String> fields, String name)
+	{
+		String value = fields.get(name);
+		if (value != null)
+		{
+			return value;
+		}
+		
+		for (Map.Entry<String, String> field : fields.entrySet())
+		{
+			if (field.getKey().equalsIgnoreCase(name))
+			{
+				return field.getValue();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the body of a response if its Content-Type says it is HTML, so
+	 * nothing else is downloaded. A page longer than the limit is dropped
+	 * rather than cut short, so part of a page is never indexed.
+	 *
+	 * @param url
+	 *            url the response is for
+	 * @param fields
+	 *            header fields of the response
+	 * @param body
+	 *            body of the response
+	 * @param limit
+	 *            most bytes of the body to read
+	 * @return HTML as a String or null if the response is not HTML or too long
+	 * @throws IOException
+	 */
+	private static String readHTML(URL url, Map<String, String> fields, InputStream body, long limit) throws IOException
+	{
 		// Double-check this is an HTML file.
-		Map<String, String> fields = parseHeaders(lines.subList(0, start + 1));
-		String type = fields.get("Content-Type");
+		String type = header(fields, "Content-Type");
+		if (type == null || !type.toLowerCase().contains("html"))
+		{
+			return null;
+		}
 
-		if (type != null && type.toLowerCase().contains("html")) 
+		String html = readText(body, limit);
+		if (html == null)
 		{
-			return String.join(System.lineSeparator(), lines.subList(start + 1, end));
+			logger.debug("Dropped " + url + ": longer than " + limit + " bytes");
 		}
+		return html;
+	}
 
-		return null;
+	/**
+	 * Decodes UTF-8 text from a stream, replacing every line terminator ("\n",
+	 * "\r" or "\r\n") but a final one with the line separator.
+	 *
+	 * @param in
+	 *            stream to read
+	 * @param limit
+	 *            most bytes to read
+	 * @return decoded text, or null if the stream is longer than the limit
+	 * @throws IOException
+	 */
+	private static String readText(InputStream in, long limit) throws IOException
+	{
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = ByteBuffer.allocate(1 << 13);
+		CharBuffer chars = CharBuffer.allocate(1 << 13);
+		StringBuilder text = new StringBuilder();
+		String separator = System.lineSeparator();
+
+		long remaining = limit;
+		boolean carriage = false;
+		int terminator = -1;
+		boolean end = false;
+		while (!end)
+		{
+			if (remaining == 0 && in.read() >= 0)
+			{
+				return null;
+			}
+
+			int read = remaining > 0 ? in.read(bytes.array(), bytes.position(), (int) Math.min(bytes.remaining(), remaining)) : -1;
+			if (read < 0)
+			{
+				end = true;
+			}
+			else
+			{
+				bytes.position(bytes.position() + read);
+				remaining -= read;
+			}
+
+			bytes.flip();
+			CoderResult result;
+			do
+			{
+				result = decoder.decode(bytes, chars, end);
+				if (end && result.isUnderflow())
+				{
+					decoder.flush(chars);
+				}
+
+				chars.flip();
+				while (chars.hasRemaining())
+				{
+					char c = chars.get();
+					if (c == '\n' && carriage)
+					{
+						carriage = false;
+						continue;
+					}
+
+					carriage = c == '\r';
+					if (c == '\r' || c == '\n')
+					{
+						terminator = text.length();
+						text.append(separator);
+					}
+					else
+					{
+						text.append(c);
+					}
+				}
+				chars.clear();
+			}
+			while (result.isOverflow());
+			bytes.compact();
+		}
+
+		if (terminator >= 0 && terminator == text.length() - separator.length())
+		{
+			text.setLength(terminator);
+		}
+		return text.toString();
 	}
 
 	/**
@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Postings of an index file that stay in the file, mapped into memory, so
+ * that loading an index only reads its words and documents. The words are
+ * packed into a {@link TermDictionary} along with where the postings of every
+ * word start in the file, and the postings of a word are only decoded when
+ * they are searched or written out. The operating system pages the file in
+ * and out as needed, so the postings never take up heap for long.
+ *
+ * The file is never changed. The postings of a word that gets more documents
+ * after loading are moved into the heap first, see {@link #take(String)}, and
+ * are left out here from then on. Reading from several threads at once is
+ * safe, but taking postings must not happen at the same time as reading.
+ * @author Benny Fung
+ */
+public class MappedPostings
+{
+	/** File the postings are mapped from. */
+	private final Path path;
+
+	/** Mapped windows of the file. */
+	private final ByteBuffer[] windows;
+
+	/** Words of the file, whose ordinals index {@link #offsets}. */
+	private final TermDictionary<Object> words;
+
+	/** Window of the postings of every word in the upper 32 bits, and their offset in it in the lower ones. */
+	private final long[] offsets;
+
+	/** Number of documents of the file. */
+	private final int documents;
+
+	/** Id in the document table of every document of the file, or null if the ids are the same. */
+	private final int[] remap;
+
+	/** Ordinals of the words whose postings were moved into the heap. */
+	private final BitSet moved;
+
+	/**
+	 * Initializes the postings of an index file.
+	 *
+	 * @param path
+	 * 			file the postings are mapped from
+	 * @param windows
+	 * 			mapped windows of the file
+	 * @param words
+	 * 			words of the file, all packed
+	 * @param offsets
+	 * 			window and offset of the postings of every word
+	 * @param documents
+	 * 			number of documents of the file
+	 * @param remap
+	 * 			id in the document table of every document, or null if the ids are the same
+	 */
+	MappedPostings(Path path, ByteBuffer[] windows, TermDictionary<Object> words, long[] offsets, int documents, int[] remap)
+	{
+		this.path = path;
+		this.windows = windows;
+		this.words = words;
+		this.offsets = offsets;
+		this.documents = documents;
+		this.remap = remap;
+		this.moved = new BitSet();
+	}
+
+	/**
+	 * Returns the number of words whose postings are still in the file.
+	 *
+	 * @return number of words
+	 */
+	public int words()
+	{
+		return offsets.length - moved.cardinality();
+	}
+
+	/**
+	 * Decodes the postings of a word.
+	 *
+	 * @param word
+	 * 			word to look up
+	 * @return postings of the word, or null if the file has none for it
+	 */
+	public PostingList get(String word)
+	{
+		int ordinal = ordinal(word);
+		return ordinal < 0 ? null : decode(ordinal);
+	}
+
+	/**
+	 * Decodes the postings of a word to move them into the heap, and leaves
+	 * them out of the file from then on.
+	 *
+	 * @param word
+	 * 			word to look up
+	 * @return postings of the word, or null if the file has none for it
+	 */
+	public PostingList take(String word)
+	{
+		int ordinal = ordinal(word);
+		if (ordinal < 0)
+		{
+			return null;
+		}
+		moved.set(ordinal);
+		return decode(ordinal);
+	}
+
+	/**
+	 * Adds the documents of a word to an accumulator, reading the number of
+	 * positions and the first position of every document straight from the
+	 * file without decoding the rest.
+	 *
+	 * @param word
+	 * 			word to search for
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
+	 */
+	public void accumulate(String word, ScoreAccumulator accumulator)
+	{
+		int ordinal = ordinal(word);
+		if (ordinal >= 0)
+		{
+			accumulate(ordinal, accumulator);
+		}
+	}
+
+	/**
+	 * Adds the documents of every word that starts with the prefix to an
+	 * accumulator, the same way as {@link #accumulate(String, ScoreAccumulator)}.
+	 *
+	 * @param prefix
+	 * 			start of the words to search for
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
+	 */
+	public void accumulatePrefix(String prefix, ScoreAccumulator accumulator)
+	{
+		int[] range = words.range(prefix);
+		for (int ordinal = range[0]; ordinal < range[1]; ordinal++)
+		{
+			if (!moved.get(ordinal))
+			{
+				accumulate(ordinal, accumulator);
+			}
+		}
+	}
+
+	/**
+	 * Merges the words of the file with other words in sorted order, such as
+	 * the words kept in the heap. The postings of a word of the file are
+	 * decoded when the iterator gets to it. Words found in both are taken
+	 * from the others.
+	 *
+	 * @param others
+	 * 			other words and postings, in sorted order
+	 * @return words and postings of both, in sorted order
+	 */
+	public Iterable<Map.Entry<String, PostingList>> merge(Iterable<Map.Entry<String, PostingList>> others)
+	{
+		return () -> new MergingIterator(others.iterator());
+	}
+
+	/**
+	 * Returns the ordinal of a word whose postings are still in the file.
+	 *
+	 * @param word
+	 * 			word to look up
+	 * @return ordinal of the word, or -1 if it is not in the file or was moved
+	 */
+	private int ordinal(String word)
+	{
+		int ordinal = words.ordinal(word);
+		return ordinal < 0 || moved.get(ordinal) ? -1 : ordinal;
+	}
+
+	/**
+	 * Returns a buffer positioned at the postings of a word. Every call gets
+	 * its own buffer, so threads do not share positions.
+	 *
+	 * @param ordinal
+	 * 			ordinal of the word
+	 * @return buffer to read the postings from
+	 */
+	private ByteBuffer open(int ordinal)
+	{
+		long offset = offsets[ordinal];
+		ByteBuffer in = windows[(int) (offset >>> 32)].duplicate();
+		in.position((int) offset);
+		return in;
+	}
+
+	/**
+	 * Decodes the postings of a word into the heap. The encoded gaps of the
+	 * position lists are copied without decoding them.
+	 *
+	 * @param ordinal
+	 * 			ordinal of the word
+	 * @return postings of the word
+	 */
+	private PostingList decode(int ordinal)
+	{
+		ByteBuffer in = open(ordinal);
+		PostingList postings = new PostingList();
+		int size = PositionList.getInt(in);
+		int document = 0;
+		for (int i = 0; i < size; i++)
+		{
+			document += PositionList.getInt(in);
+			postings.put(id(document), PositionList.read(in));
+		}
+		return postings;
+	}
+
+	/**
+	 * Adds the documents of a word to an accumulator.
+	 *
+	 * @param ordinal
+	 * 			ordinal of the word
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
+	 */
+	private void accumulate(int ordinal, ScoreAccumulator accumulator)
+	{
+		ByteBuffer in = open(ordinal);
+		int size = PositionList.getInt(in);
+		int document = 0;
+		for (int i = 0; i < size; i++)
+		{
+			document += PositionList.getInt(in);
+			int frequency = PositionList.getInt(in);
+			int first = PositionList.getInt(in);
+			int length = PositionList.getInt(in);
+			in.position(in.position() + length);
+			accumulator.add(id(document), frequency, first);
+		}
+	}
+
+	/**
+	 * Returns the id in the document table of a document of the file.
+	 *
+	 * @param document
+	 * 			id of the document in the file
+	 * @return id of the document in the document table
+	 */
+	private int id(int document)
+	{
+		if (document >= documents)
+		{
+			throw new UncheckedIOException(new IOException("Corrupt index file: " + path));
+		}
+		return remap == null ? document : remap[document];
+	}
+
+	/**
+	 * Iterates through the words of the file and the other words at the same
+	 * time, returning whichever word comes first.
+	 */
+	private class MergingIterator implements Iterator<Map.Entry<String, PostingList>>
+	{
+		private final Iterator<Map.Entry<String, Object>> terms;
+		private String term;
+		private int ordinal;
+		private final Iterator<Map.Entry<String, PostingList>> others;
+		private Map.Entry<String, PostingList> other;
+
+		public MergingIterator(Iterator<Map.Entry<String, PostingList>> others)
+		{
+			this.terms = words.iterator();
+			this.ordinal = -1;
+			this.others = others;
+			this.other = others.hasNext() ? others.next() : null;
+			advance();
+		}
+
+		/**
+		 * Finds the next word of the file that was not moved.
+		 */
+		private void advance()
+		{
+			term = null;
+			while (terms.hasNext())
+			{
+				String next = terms.next().getKey();
+				ordinal++;
+				if (!moved.get(ordinal))
+				{
+					term = next;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return term != null || other != null;
+		}
+
+		@Override
+		public Map.Entry<String, PostingList> next()
+		{
+			Map.Entry<String, PostingList> entry;
+			int comparison = term == null ? 1 : other == null ? -1 : term.compareTo(other.getKey());
+			if (comparison < 0)
+			{
+				entry = new AbstractMap.SimpleImmutableEntry<>(term, decode(ordinal));
+				advance();
+			}
+			else if (other != null)
+			{
+				if (comparison == 0)
+				{
+					advance();
+				}
+				entry = other;
+				other = others.hasNext() ? others.next() : null;
+			}
+			else
+			{
+				throw new NoSuchElementException();
+			}
+			return entry;
+		}
+	}
+}
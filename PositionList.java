@@ -0,0 +1,496 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Stores the sorted, unique positions a word was found at within a single
+ * document. Positions are kept in a growable int array while the document is
+ * being added, and are delta and variable-byte encoded once the document is
+ * finished (see {@link #seal()}).
+ *
+ * Most words are found only once in a document, so sealed lists of a single
+ * position are shared between documents (see {@link #shared()}) instead of
+ * every document keeping its own. A shared list can never be reopened; lists
+ * that may be shared are replaced by a reopened copy rather than changed.
+ * @author Benny Fung
+ */
+public class PositionList
+{
+	/** Shared encoding for lists that only store their first position. */
+	private static final byte[] EMPTY = new byte[0];
+
+	/** Initial capacity of the open position buffer. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** Positions below this have a shared list of that single position. */
+	private static final int SHARED_LIMIT = 1 << 16;
+
+	/** Shared sealed lists of a single position, created when first needed. */
+	private static final AtomicReferenceArray<PositionList> singles = new AtomicReferenceArray<>(SHARED_LIMIT);
+
+	/**
+	 * Positions of an open list, or null once the list has been sealed.
+	 */
+	private int[] buffer;
+
+	/**
+	 * Variable-byte encoded gaps after the first position of a sealed list, or
+	 * null while the list is open.
+	 */
+	private byte[] gaps;
+
+	private int size;
+	private int first;
+	private int last;
+
+	/**
+	 * Initializes an empty, open position list.
+	 */
+	public PositionList()
+	{
+		buffer = new int[INITIAL_CAPACITY];
+		gaps = null;
+		size = 0;
+	}
+
+	/**
+	 * Adds a position to the list. Positions are usually added in increasing
+	 * order, in which case this is a simple append. Adding to a sealed list will
+	 * reopen it.
+	 *
+	 * @param position
+	 * 			position to add
+	 */
+	public void add(int position)
+	{
+		if (buffer == null)
+		{
+			unseal();
+		}
+
+		if (size == 0)
+		{
+			buffer[size++] = position;
+			first = position;
+			last = position;
+		}
+		else if (position > last)
+		{
+			grow(size + 1);
+			buffer[size++] = position;
+			last = position;
+		}
+		else
+		{
+			int index = Arrays.binarySearch(buffer, 0, size, position);
+			if (index < 0)
+			{
+				index = -index - 1;
+				grow(size + 1);
+				System.arraycopy(buffer, index, buffer, index + 1, size - index);
+				buffer[index] = position;
+				size++;
+				first = buffer[0];
+			}
+		}
+	}
+
+	/**
+	 * Adds all of the positions from another list. The sealed state of this
+	 * list is kept.
+	 *
+	 * @param other
+	 * 			list of positions to add
+	 */
+	public void addAll(PositionList other)
+	{
+		boolean sealed = buffer == null;
+		PrimitiveIterator.OfInt iterator = other.iterator();
+
+		while (iterator.hasNext())
+		{
+			add(iterator.nextInt());
+		}
+
+		if (sealed)
+		{
+			seal();
+		}
+	}
+
+	/**
+	 * Finishes the list by delta and variable-byte encoding the positions and
+	 * releasing the open buffer. Does nothing if the list is already sealed.
+	 */
+	public void seal()
+	{
+		if (buffer == null)
+		{
+			return;
+		}
+
+		gaps = encodeGaps();
+		buffer = null;
+	}
+
+	/**
+	 * Returns the shared list of this list's only position if this list is
+	 * sealed and stores a single position, or this list otherwise. The shared
+	 * list must never be changed.
+	 *
+	 * @return shared list equal to this one, or this list
+	 */
+	public PositionList shared()
+	{
+		if (buffer != null || size != 1 || first < 0 || first >= SHARED_LIMIT)
+		{
+			return this;
+		}
+
+		PositionList single = singles.get(first);
+		if (single == null)
+		{
+			singles.compareAndSet(first, null, this);
+			single = singles.get(first);
+		}
+		return single;
+	}
+
+	/**
+	 * Delta and variable-byte encodes the positions of the open buffer after
+	 * the first one.
+	 *
+	 * @return encoded gaps
+	 */
+	private byte[] encodeGaps()
+	{
+		int length = 0;
+		for (int i = 1; i < size; i++)
+		{
+			length += encodedLength(buffer[i] - buffer[i - 1]);
+		}
+
+		byte[] encoded = length == 0 ? EMPTY : new byte[length];
+		int offset = 0;
+		for (int i = 1; i < size; i++)
+		{
+			offset = encode(buffer[i] - buffer[i - 1], encoded, offset);
+		}
+		return encoded;
+	}
+
+	/**
+	 * Returns the number of bytes {@link #write(ByteBuffer)} will use.
+	 *
+	 * @return number of bytes
+	 */
+	public int writtenLength()
+	{
+		int length = buffer == null ? gaps.length : encodeGaps().length;
+		return encodedLength(size) + encodedLength(first) + encodedLength(length) + length;
+	}
+
+	/**
+	 * Writes the list in its sealed form: the number of positions, the first
+	 * position and the encoded gaps, each count variable-byte encoded. Open
+	 * lists are encoded without sealing them.
+	 *
+	 * @param out
+	 * 			buffer to write to, with at least {@link #writtenLength()} bytes remaining
+	 */
+	public void write(ByteBuffer out)
+	{
+		byte[] encoded = buffer == null ? gaps : encodeGaps();
+		putInt(out, size);
+		putInt(out, first);
+		putInt(out, encoded.length);
+		out.put(encoded);
+	}
+
+	/**
+	 * Reads a sealed list written by {@link #write(ByteBuffer)}. The encoded
+	 * gaps are copied as they are, without decoding them.
+	 *
+	 * @param in
+	 * 			buffer to read from
+	 * @return sealed position list, which is shared if it stores a single position
+	 */
+	public static PositionList read(ByteBuffer in)
+	{
+		PositionList list = new PositionList();
+		list.size = getInt(in);
+		list.first = getInt(in);
+		int length = getInt(in);
+
+		byte[] encoded = length == 0 ? EMPTY : new byte[length];
+		in.get(encoded);
+		list.gaps = encoded;
+		list.buffer = null;
+		return list.shared();
+	}
+
+	/**
+	 * Variable-byte encodes a value into a buffer, the same way the gaps are encoded.
+	 *
+	 * @param out
+	 * 			buffer to write to
+	 * @param value
+	 * 			value to encode, treated as unsigned
+	 */
+	static void putInt(ByteBuffer out, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	/**
+	 * Decodes a variable-byte encoded value from a buffer.
+	 *
+	 * @param in
+	 * 			buffer to read from
+	 * @return decoded value
+	 */
+	static int getInt(ByteBuffer in)
+	{
+		int value = 0;
+		int shift = 0;
+		byte next;
+		do
+		{
+			next = in.get();
+			value |= (next & 0x7F) << shift;
+			shift += 7;
+		}
+		while (next < 0);
+		return value;
+	}
+
+	/**
+	 * Returns whether the list has been sealed.
+	 *
+	 * @return true if the positions are stored encoded
+	 */
+	public boolean isSealed()
+	{
+		return buffer == null;
+	}
+
+	/**
+	 * Returns the number of positions stored.
+	 *
+	 * @return number of positions
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the smallest position stored.
+	 *
+	 * @return first position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int first()
+	{
+		if (size == 0)
+		{
+			throw new NoSuchElementException();
+		}
+		return first;
+	}
+
+	/**
+	 * Tests whether the position is stored in the list.
+	 *
+	 * @param position
+	 * 			position to look for
+	 * @return true if the position is stored
+	 */
+	public boolean contains(int position)
+	{
+		if (buffer != null)
+		{
+			return Arrays.binarySearch(buffer, 0, size, position) >= 0;
+		}
+
+		PrimitiveIterator.OfInt iterator = iterator();
+		while (iterator.hasNext())
+		{
+			int next = iterator.nextInt();
+			if (next >= position)
+			{
+				return next == position;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns an iterator over the positions in increasing order, decoding them
+	 * as needed without boxing.
+	 *
+	 * @return iterator over the positions
+	 */
+	public PrimitiveIterator.OfInt iterator()
+	{
+		if (buffer != null)
+		{
+			return Arrays.stream(buffer, 0, size).iterator();
+		}
+		return new GapIterator();
+	}
+
+	/**
+	 * Returns the positions as a new array.
+	 *
+	 * @return array of positions in increasing order
+	 */
+	public int[] toArray()
+	{
+		if (buffer != null)
+		{
+			return Arrays.copyOf(buffer, size);
+		}
+
+		int[] positions = new int[size];
+		PrimitiveIterator.OfInt iterator = iterator();
+		for (int i = 0; i < size; i++)
+		{
+			positions[i] = iterator.nextInt();
+		}
+		return positions;
+	}
+
+	/**
+	 * Decodes a sealed list back into an open buffer.
+	 */
+	private void unseal()
+	{
+		if (size == 1 && first >= 0 && first < SHARED_LIMIT && singles.get(first) == this)
+		{
+			throw new UnsupportedOperationException("Shared position lists cannot be changed");
+		}
+
+		int[] positions = toArray();
+		buffer = size < INITIAL_CAPACITY ? Arrays.copyOf(positions, INITIAL_CAPACITY) : positions;
+		gaps = null;
+		last = size == 0 ? 0 : positions[size - 1];
+	}
+
+	/**
+	 * Makes sure the open buffer can hold at least the given number of positions.
+	 *
+	 * @param capacity
+	 * 			minimum capacity needed
+	 */
+	private void grow(int capacity)
+	{
+		if (capacity > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes needed to variable-byte encode a value.
+	 *
+	 * @param value
+	 * 			value to encode, treated as unsigned
+	 * @return number of bytes
+	 */
+	static int encodedLength(int value)
+	{
+		int length = 1;
+		while ((value >>>= 7) != 0)
+		{
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Variable-byte encodes a value, seven bits at a time with the high bit set
+	 * on every byte except the last.
+	 *
+	 * @param value
+	 * 			value to encode, treated as unsigned
+	 * @param bytes
+	 * 			array to encode into
+	 * @param offset
+	 * 			where to start writing
+	 * @return offset after the encoded value
+	 */
+	private static int encode(int value, byte[] bytes, int offset)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Returns a string representation of the positions.
+	 */
+	public String toString()
+	{
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Iterates through a sealed list by adding up the encoded gaps.
+	 */
+	private class GapIterator implements PrimitiveIterator.OfInt
+	{
+		private int offset;
+		private int remaining;
+		private int current;
+
+		public GapIterator()
+		{
+			offset = 0;
+			remaining = size;
+			current = first;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return remaining > 0;
+		}
+
+		@Override
+		public int nextInt()
+		{
+			if (remaining <= 0)
+			{
+				throw new NoSuchElementException();
+			}
+
+			if (remaining-- < size)
+			{
+				int gap = 0;
+				int shift = 0;
+				byte next;
+				do
+				{
+					next = gaps[offset++];
+					gap |= (next & 0x7F) << shift;
+					shift += 7;
+				}
+				while (next < 0);
+				current += gap;
+			}
+			return current;
+		}
+	}
+}
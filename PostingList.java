@@ -0,0 +1,297 @@
+import java.util.Arrays;
+
+/**
+ * Stores the documents a single word was found in, along with the positions
+ * of the word in each document. Documents are referenced by their id in a
+ * {@link DocumentTable} and kept sorted by id.
+ * @author Benny Fung
+ */
+public class PostingList
+{
+	/** Initial capacity of the document arrays. */
+	private static final int INITIAL_CAPACITY = 2;
+
+	private int[] documents;
+	private PositionList[] positions;
+	private int size;
+
+	/**
+	 * Initializes an empty posting list.
+	 */
+	public PostingList()
+	{
+		documents = new int[INITIAL_CAPACITY];
+		positions = new PositionList[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Returns the position list for the document, creating an empty one if the
+	 * document is not stored yet. The list may be changed, so a sealed list,
+	 * which may be shared, is first replaced by a reopened copy.
+	 *
+	 * @param document
+	 * 			id of the document
+	 * @return position list of the document
+	 */
+	public PositionList positions(int document)
+	{
+		int index = indexOf(document);
+		if (index < 0)
+		{
+			index = -index - 1;
+			insert(index, document, new PositionList());
+		}
+		else if (positions[index].isSealed())
+		{
+			PositionList open = new PositionList();
+			open.addAll(positions[index]);
+			positions[index] = open;
+		}
+		return positions[index];
+	}
+
+	/**
+	 * Returns the position list for the document.
+	 *
+	 * @param document
+	 * 			id of the document
+	 * @return position list of the document, or null if it is not stored
+	 */
+	public PositionList get(int document)
+	{
+		int index = indexOf(document);
+		return index < 0 ? null : positions[index];
+	}
+
+	/**
+	 * Stores the position list for a document, replacing any position list
+	 * already stored for it.
+	 *
+	 * @param document
+	 * 			id of the document
+	 * @param list
+	 * 			position list of the document
+	 */
+	public void put(int document, PositionList list)
+	{
+		int index = indexOf(document);
+		if (index < 0)
+		{
+			insert(-index - 1, document, list);
+		}
+		else
+		{
+			positions[index] = list;
+		}
+	}
+
+	/**
+	 * Adds all of the documents and positions of another posting list. Position
+	 * lists of documents not stored yet are shared rather than copied. Sealed
+	 * position lists may be shared with other posting lists, so they are
+	 * replaced by a combined list rather than changed.
+	 *
+	 * @param other
+	 * 			posting list to add
+	 * @param remap
+	 * 			maps the document ids of the other list to ids of this list, or
+	 * 			to -1 to leave a document out, or null if both lists use the same ids
+	 */
+	public void addAll(PostingList other, int[] remap)
+	{
+		for (int i = 0; i < other.size; i++)
+		{
+			int document = remap == null ? other.documents[i] : remap[other.documents[i]];
+			if (document < 0)
+			{
+				continue;
+			}
+			int index = indexOf(document);
+			if (index < 0)
+			{
+				insert(-index - 1, document, other.positions[i]);
+			}
+			else if (positions[index].isSealed())
+			{
+				PositionList combined = new PositionList();
+				combined.addAll(positions[index]);
+				combined.addAll(other.positions[i]);
+				combined.seal();
+				positions[index] = combined;
+			}
+			else
+			{
+				positions[index].addAll(other.positions[i]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces every sealed list of a single position by the shared list of
+	 * that position, see {@link PositionList#shared()}.
+	 */
+	public void share()
+	{
+		for (int i = 0; i < size; i++)
+		{
+			positions[i] = positions[i].shared();
+		}
+	}
+
+	/**
+	 * Tells whether any document of this list was not removed from its
+	 * document table.
+	 *
+	 * @param table
+	 * 			document table the ids belong to
+	 * @return true if at least one document is live
+	 */
+	public boolean hasLive(DocumentTable table)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			if (!table.isDeleted(documents[i]))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the documents of this list that were not removed from their
+	 * document table.
+	 *
+	 * @param table
+	 * 			document table the ids belong to
+	 * @return this list if none of its documents were removed, a new list
+	 * 		sharing the position lists of the live documents, or null if all of
+	 * 		them were removed
+	 */
+	public PostingList live(DocumentTable table)
+	{
+		int first = 0;
+		while (first < size && !table.isDeleted(documents[first]))
+		{
+			first++;
+		}
+		if (first == size)
+		{
+			return this;
+		}
+
+		PostingList live = new PostingList();
+		for (int i = 0; i < size; i++)
+		{
+			if (!table.isDeleted(documents[i]))
+			{
+				live.insert(live.size, documents[i], positions[i]);
+			}
+		}
+		return live.size > 0 ? live : null;
+	}
+
+	/**
+	 * Returns the number of documents stored.
+	 *
+	 * @return number of documents
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the id of the document at an index of this list.
+	 *
+	 * @param index
+	 * 			index between 0 and {@link #size()}
+	 * @return id of the document
+	 */
+	public int documentAt(int index)
+	{
+		return documents[index];
+	}
+
+	/**
+	 * Returns the position list of the document at an index of this list.
+	 *
+	 * @param index
+	 * 			index between 0 and {@link #size()}
+	 * @return position list of the document
+	 */
+	public PositionList positionsAt(int index)
+	{
+		return positions[index];
+	}
+
+	/**
+	 * Returns the indices of this list ordered by the rank of their documents,
+	 * for example to list the documents sorted by path.
+	 *
+	 * @param ranks
+	 * 			rank of every document, indexed by id
+	 * @return indices between 0 and {@link #size()} in rank order
+	 *
+	 * @see DocumentTable#ranks()
+	 */
+	public int[] order(int[] ranks)
+	{
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+		{
+			keys[i] = ((long) ranks[documents[i]] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Finds the index of a document, checking the end of the list first since
+	 * documents are usually added in increasing order.
+	 *
+	 * @param document
+	 * 			id of the document
+	 * @return index of the document, or (-(insertion point) - 1) if not stored
+	 */
+	private int indexOf(int document)
+	{
+		if (size == 0 || document > documents[size - 1])
+		{
+			return -size - 1;
+		}
+		return Arrays.binarySearch(documents, 0, size, document);
+	}
+
+	/**
+	 * Inserts a document and its positions at an index of this list.
+	 *
+	 * @param index
+	 * 			index to insert at
+	 * @param document
+	 * 			id of the document
+	 * @param list
+	 * 			position list of the document
+	 */
+	private void insert(int index, int document, PositionList list)
+	{
+		if (size == documents.length)
+		{
+			documents = Arrays.copyOf(documents, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+
+		System.arraycopy(documents, index, documents, index + 1, size - index);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		documents[index] = document;
+		positions[index] = list;
+		size++;
+	}
+}
@@ -4,7 +4,6 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path; 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.TreeMap;
 
 /** 
@@ -31,14 +30,22 @@ public class QueryHelper implements QueryHelperInterface
 	 */
 	@Override
 	public void parseQuery(Path path, boolean exact) throws IOException
+	{
+		parseQuery(path, exact, 0);
+	}
+	
+	/**
+	 * Overridden by Interface class
+	 */
+	@Override
+	public void parseQuery(Path path, boolean exact, int limit) throws IOException
 	{
 		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);)
 		{	
 			String line;
 			while ((line = reader.readLine()) != null)
 			{
-				String[] words = WordParser.parseWords(line);
-				Arrays.sort(words);
+				String[] words = WordParser.sortedWords(line);
 				
 				if (words.length == 0) 
 				{
@@ -46,7 +53,7 @@ public class QueryHelper implements QueryHelperInterface
 				}
 				
 				line = String.join(" ", words);
-				ArrayList<SearchResult> local = exact ? index.exactSearch(words) : index.partialSearch(words);
+				ArrayList<SearchResult> local = exact ? index.exactSearch(words, limit) : index.partialSearch(words, limit);
 				map.put(line, local);
 			}
 		}
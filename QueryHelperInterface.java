@@ -17,6 +17,19 @@ public interface QueryHelperInterface
 	 */
 	public void parseQuery(Path path, boolean exact) throws IOException;
 	
+	/**
+	 * Method that parses queries like {@link #parseQuery(Path, boolean)}, but only keeps the best
+	 * results of each query
+	 * @param path
+	 * 			path to input
+	 * @param exact
+	 * 			boolean exact which is used to later call the exact/partial search methods accordingly
+	 * @param limit
+	 * 			maximum number of results to keep per query, or 0 to keep all of them
+	 * @throws IOException
+	 */
+	public void parseQuery(Path path, boolean exact, int limit) throws IOException;
+	
 	/**
 	 * Method that writes the data structure to JSON format by calling the JSON method.
 	 * @param path
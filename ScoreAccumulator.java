@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Adds up the frequency and earliest position of the documents matched by a
+ * search in primitive arrays indexed by document id. Search results are only
+ * created once the search is finished. An accumulator is meant to be reused
+ * for many searches by the same thread, so only the entries touched by the
+ * last search are cleared. Documents deleted from the document table are left
+ * out of the results.
+ * @author Benny Fung
+ */
+public class ScoreAccumulator
+{
+	/**
+	 * Accumulators reused by the searches of each thread.
+	 */
+	private static final ThreadLocal<ScoreAccumulator> accumulators = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+	private int[] frequencies;
+	private int[] positions;
+	private int[] touched;
+	private int count;
+
+	/**
+	 * Initializes an empty accumulator.
+	 */
+	public ScoreAccumulator()
+	{
+		frequencies = new int[0];
+		positions = new int[0];
+		touched = new int[0];
+		count = 0;
+	}
+
+	/**
+	 * Returns the accumulator reused by the searches of the current thread.
+	 *
+	 * @return accumulator of the current thread
+	 */
+	public static ScoreAccumulator local()
+	{
+		return accumulators.get();
+	}
+
+	/**
+	 * Prepares the accumulator for a new search.
+	 *
+	 * @param documents
+	 * 			number of documents that may be matched
+	 */
+	public void reset(int documents)
+	{
+		clear();
+		if (documents > frequencies.length)
+		{
+			int capacity = Math.max(documents, frequencies.length + (frequencies.length >> 1));
+			frequencies = Arrays.copyOf(frequencies, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			touched = Arrays.copyOf(touched, capacity);
+		}
+	}
+
+	/**
+	 * Adds the frequency of a matched word to a document, keeping track of the
+	 * earliest position found.
+	 *
+	 * @param document
+	 * 			id of the document
+	 * @param frequency
+	 * 			number of times the word was found in the document
+	 * @param position
+	 * 			first position the word was found in the document
+	 */
+	public void add(int document, int frequency, int position)
+	{
+		if (frequencies[document] == 0)
+		{
+			touched[count++] = document;
+			positions[document] = position;
+		}
+		else if (position < positions[document])
+		{
+			positions[document] = position;
+		}
+		frequencies[document] += frequency;
+	}
+
+	/**
+	 * Returns the number of documents matched so far.
+	 *
+	 * @return number of documents
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Creates the sorted search results for the matched documents and clears
+	 * the accumulator.
+	 *
+	 * @param documents
+	 * 			document table used to look up the paths
+	 * @return sorted list of search results
+	 */
+	public ArrayList<SearchResult> results(DocumentTable documents)
+	{
+		dropDeleted(documents);
+		ArrayList<SearchResult> results = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			int document = touched[i];
+			results.add(new SearchResult(documents.path(document), frequencies[document], positions[document]));
+		}
+		clear();
+
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Creates the sorted search results for at most the given number of the
+	 * best matched documents and clears the accumulator. Uses a bounded heap
+	 * ordered by {@link SearchResult#compareTo(SearchResult)}, so the results
+	 * are the same as the first results of {@link #results(DocumentTable)}.
+	 *
+	 * @param documents
+	 * 			document table used to look up the paths
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return sorted list of search results
+	 */
+	public ArrayList<SearchResult> results(DocumentTable documents, int limit)
+	{
+		dropDeleted(documents);
+		if (limit <= 0 || limit >= count)
+		{
+			return results(documents);
+		}
+
+		PriorityQueue<SearchResult> heap = new PriorityQueue<>(limit, Collections.reverseOrder());
+		for (int i = 0; i < count; i++)
+		{
+			int document = touched[i];
+			int frequency = frequencies[document];
+			int position = positions[document];
+
+			if (heap.size() < limit)
+			{
+				heap.add(new SearchResult(documents.path(document), frequency, position));
+				continue;
+			}
+
+			SearchResult worst = heap.peek();
+			if (frequency < worst.getFrequency() || (frequency == worst.getFrequency() && position > worst.getPosition()))
+			{
+				continue;
+			}
+
+			SearchResult result = new SearchResult(documents.path(document), frequency, position);
+			if (result.compareTo(worst) < 0)
+			{
+				heap.poll();
+				heap.add(result);
+			}
+		}
+		clear();
+
+		ArrayList<SearchResult> results = new ArrayList<>(heap);
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Clears the entries of matched documents that were deleted from the
+	 * document table.
+	 *
+	 * @param documents
+	 * 			document table the ids belong to
+	 */
+	private void dropDeleted(DocumentTable documents)
+	{
+		if (documents.deleted() == 0)
+		{
+			return;
+		}
+
+		int kept = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int document = touched[i];
+			if (documents.isDeleted(document))
+			{
+				frequencies[document] = 0;
+			}
+			else
+			{
+				touched[kept++] = document;
+			}
+		}
+		count = kept;
+	}
+
+	/**
+	 * Clears the entries touched by the last search.
+	 */
+	private void clear()
+	{
+		for (int i = 0; i < count; i++)
+		{
+			frequencies[touched[i]] = 0;
+		}
+		count = 0;
+	}
+}
@@ -0,0 +1,923 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread-safe inverted index made of immutable segments that share one
+ * document table. Every call to addAll seals the added words into a new
+ * segment, which is published without merging it into the rest of the index.
+ * Searches add up the matches of every segment, and a background task merges
+ * segments of the same size into larger ones so there are never many of them.
+ *
+ * Words added one at a time go to an open buffer, which is sealed into a
+ * segment when the index is compacted or written.
+ *
+ * Segments never change, so removing a document only marks it as deleted in
+ * the document table; merges leave the postings of deleted documents out, and
+ * compacting merges the last segment again if documents were deleted since.
+ * @author Benny Fung
+ */
+public class SegmentedInvertedIndex extends ThreadedInvertedIndex
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	/** Number of segments of the same level that are merged together. */
+	public static final int MERGE_FACTOR = 10;
+
+	/**
+	 * Published segments. The array is replaced rather than changed, so searches
+	 * can use it without locking.
+	 */
+	private volatile Segment[] segments;
+
+	/** Guards replacing the segments and adding to the buffer. */
+	private final ReadWriteLock lock;
+
+	/** Holds the words added one at a time, guarded by the lock. */
+	private InvertedIndex buffer;
+
+	/** Used to run merges in the background, or null to merge while adding. */
+	private final WorkQueue queue;
+
+	/** Guards whether a merge is scheduled or running. */
+	private final Object mergeLock;
+
+	/** Whether a merge is scheduled or running. */
+	private boolean merging;
+
+	/** Number of deleted documents whose postings were reclaimed by the last compaction. */
+	private int purged;
+
+	/**
+	 * Initializes the index, merging segments in the thread adding them.
+	 */
+	public SegmentedInvertedIndex()
+	{
+		this(new DocumentTable(), null);
+	}
+
+	/**
+	 * Initializes the index, merging segments in the background.
+	 *
+	 * @param queue
+	 * 			work queue used to merge segments
+	 */
+	public SegmentedInvertedIndex(WorkQueue queue)
+	{
+		this(new DocumentTable(), queue);
+	}
+
+	/**
+	 * Initializes the index using an existing document table.
+	 *
+	 * @param documents
+	 * 			document table to use
+	 * @param queue
+	 * 			work queue used to merge segments, or null to merge while adding
+	 */
+	public SegmentedInvertedIndex(DocumentTable documents, WorkQueue queue)
+	{
+		super(documents);
+		this.queue = queue;
+		segments = new Segment[0];
+		lock = new ReadWriteLock();
+		buffer = new InvertedIndex(documents);
+		mergeLock = new Object();
+		merging = false;
+		purged = 0;
+	}
+
+	/**
+	 * Adds the word and the paths as well as the position it was found to the buffer.
+	 *
+	 * @param word
+	 * 			takes in a word to add
+	 * @param path
+	 * 			takes in a path to add
+	 * @param position
+	 * 			takes in the position of the word and path to add
+	 */
+	@Override
+	public void add(String word, String path, int position)
+	{
+		add(word, documents().add(path), position);
+	}
+
+	/**
+	 * Adds the word and the id of the document as well as the position it was found to the buffer.
+	 *
+	 * @param word
+	 * 			takes in a word to add
+	 * @param document
+	 * 			takes in the id of the document
+	 * @param position
+	 * 			takes in the position of the word and document to add
+	 */
+	@Override
+	public void add(String word, int document, int position)
+	{
+		lock.lockReadWrite();
+		try
+		{
+			buffer.add(word, document, position);
+		}
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Adds the array of words of a document as a new segment.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param path
+	 *            path of the document
+	 */
+	@Override
+	public void addAll(String[] words, Path path)
+	{
+		addAll(words, documents().add(path.toString()));
+	}
+
+	/**
+	 * Adds the array of words of a document as a new segment.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param document
+	 *            id of the document
+	 */
+	@Override
+	public void addAll(String[] words, int document)
+	{
+		InvertedIndex local = new InvertedIndex(documents());
+		local.addAll(words, document);
+		publish(local, 0);
+	}
+
+	/**
+	 * Adds the words of cleaned text for the document id as a new segment.
+	 *
+	 * @param text
+	 *            text to parse and add
+	 * @param document
+	 *            id of the document
+	 */
+	@Override
+	public void addText(String text, int document)
+	{
+		InvertedIndex local = new InvertedIndex(documents());
+		local.addText(text, document);
+		publish(local, 0);
+	}
+
+	/**
+	 * Removes a document from the index without locking. Its id is marked as
+	 * deleted right away, and its postings are left out of the next merge.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @return true if the document was in the document table
+	 */
+	@Override
+	public boolean remove(String path)
+	{
+		return documents().remove(path) >= 0;
+	}
+
+	/**
+	 * Replaces the words of a document with a new segment under a new id. A
+	 * search running at the same time may see neither the old document nor
+	 * the new one.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @param words
+	 *            array of words to add
+	 */
+	@Override
+	public void replace(String path, String[] words)
+	{
+		documents().remove(path);
+		addAll(words, documents().add(path));
+	}
+
+	/**
+	 * Adds another index as a new segment. The other index is meant to be
+	 * thrown away afterwards, so it is sealed and used as the segment unless it
+	 * uses a different document table.
+	 *
+	 * @param other
+	 * 			index to add
+	 */
+	@Override
+	public void addAll(InvertedIndex other)
+	{
+		InvertedIndex segment = other;
+		if (other.documents() != documents())
+		{
+			segment = new InvertedIndex(documents());
+			segment.addAll(other);
+		}
+
+		segment.seal();
+		publish(segment, 0);
+	}
+
+	/**
+	 * Compacts and publishes a segment, and schedules a merge if there are
+	 * enough segments of its level.
+	 *
+	 * @param index
+	 * 			sealed index to publish
+	 * @param level
+	 * 			number of merges the segment went through
+	 */
+	private void publish(InvertedIndex index, int level)
+	{
+		index.compact();
+		if (index.words() == 0)
+		{
+			return;
+		}
+
+		lock.lockReadWrite();
+		try
+		{
+			Segment[] current = segments;
+			Segment[] added = Arrays.copyOf(current, current.length + 1);
+			added[current.length] = new Segment(index, level);
+			segments = added;
+		}
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+		scheduleMerge();
+	}
+
+	/**
+	 * Starts merging segments if some level has enough segments and no merge is
+	 * running yet.
+	 */
+	private void scheduleMerge()
+	{
+		synchronized (mergeLock)
+		{
+			if (merging || mergeLevel(segments) < 0)
+			{
+				return;
+			}
+			merging = true;
+		}
+
+		if (queue == null)
+		{
+			new MergeTask().run();
+		}
+		else
+		{
+			queue.execute(new MergeTask());
+		}
+	}
+
+	/**
+	 * Waits until no merge is running.
+	 */
+	private void awaitMerges()
+	{
+		synchronized (mergeLock)
+		{
+			while (merging)
+			{
+				try
+				{
+					mergeLock.wait();
+				}
+				catch (InterruptedException e)
+				{
+					logger.debug("Waiting for merges interrupted" + e);
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the lowest level with enough segments to merge.
+	 *
+	 * @param segments
+	 * 			segments to look at
+	 * @return level to merge, or -1 if no level has enough segments
+	 */
+	private static int mergeLevel(Segment[] segments)
+	{
+		int[] counts = new int[0];
+		for (Segment segment : segments)
+		{
+			if (segment.level >= counts.length)
+			{
+				counts = Arrays.copyOf(counts, segment.level + 1);
+			}
+			counts[segment.level]++;
+		}
+
+		for (int level = 0; level < counts.length; level++)
+		{
+			if (counts[level] >= MERGE_FACTOR)
+			{
+				return level;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Merges segments into one new segment, leaving out deleted documents. The
+	 * merged segment shares the posting lists of words found in only one of
+	 * the segments.
+	 *
+	 * @param merged
+	 * 			segments to merge
+	 * @return merged index
+	 */
+	private InvertedIndex merge(Segment[] merged)
+	{
+		InvertedIndex index = new InvertedIndex(documents());
+		for (Map.Entry<String, PostingList> entry : live(postings(merged), documents()))
+		{
+			index.putPostings(entry.getKey(), entry.getValue());
+		}
+		index.compact();
+		return index;
+	}
+
+	/**
+	 * Replaces segments with the merged segment.
+	 *
+	 * @param merged
+	 * 			segments that were merged
+	 * @param index
+	 * 			merged index
+	 * @param level
+	 * 			level of the merged segment
+	 */
+	private void replace(Segment[] merged, InvertedIndex index, int level)
+	{
+		lock.lockReadWrite();
+		try
+		{
+			ArrayList<Segment> remaining = new ArrayList<>();
+			for (Segment segment : segments)
+			{
+				if (!Arrays.asList(merged).contains(segment))
+				{
+					remaining.add(segment);
+				}
+			}
+			remaining.add(new Segment(index, level));
+			segments = remaining.toArray(new Segment[0]);
+		}
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Seals the buffer into a segment, waits for background merges and merges
+	 * the remaining segments into one, which also reclaims the postings of
+	 * documents deleted since the last call. Should be called once the index
+	 * is built, before searching.
+	 */
+	@Override
+	public void compact()
+	{
+		flush();
+		awaitMerges();
+
+		int deleted = documents().deleted();
+		Segment[] current = segments;
+		if (current.length > 1 || (current.length == 1 && deleted != purged))
+		{
+			int level = 0;
+			for (Segment segment : current)
+			{
+				level = Math.max(level, segment.level);
+			}
+			replace(current, merge(current), level + 1);
+			logger.debug("Merged " + current.length + " segments");
+		}
+		purged = deleted;
+	}
+
+	/**
+	 * Seals the words added one at a time into a new segment.
+	 */
+	private void flush()
+	{
+		InvertedIndex flushed;
+		lock.lockReadWrite();
+		try
+		{
+			if (buffer.words() == 0)
+			{
+				return;
+			}
+			flushed = buffer;
+			buffer = new InvertedIndex(documents());
+		}
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+		addAll(flushed);
+	}
+
+	/**
+	 * Returns the number of segments currently published.
+	 *
+	 * @return number of segments
+	 */
+	public int segments()
+	{
+		return segments.length;
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for an exact match
+	 * @param words
+	 * 			each individual query
+	 * @return
+	 * 		returns a list of sorted exact search results
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words)
+	{
+		return search(words, 0, false);
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for an exact match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best exact search results
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		return search(words, limit, false);
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for a partial match
+	 * @param words
+	 * 			each individual query
+	 * @return
+	 * 		returns a list of sorted partial search results
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(String words[])
+	{
+		return search(words, 0, true);
+	}
+
+	/**
+	 * search method that takes in a query and searches through the index for a partial match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best partial search results
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(String words[], int limit)
+	{
+		return search(words, limit, true);
+	}
+
+	/**
+	 * Adds up the matches of every segment and of the buffer. The segments are
+	 * read before the number of documents, so every document they contain
+	 * fits in the accumulator.
+	 *
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @param partial
+	 * 			whether to match the start of words instead of whole words
+	 * @return sorted list of search results
+	 */
+	private ArrayList<SearchResult> search(String[] words, int limit, boolean partial)
+	{
+		Segment[] current = segments;
+		ScoreAccumulator accumulator = ScoreAccumulator.local();
+
+		lock.lockReadOnly();
+		try
+		{
+			accumulator.reset(documents().size());
+			accumulate(buffer, words, accumulator, partial);
+		}
+		finally
+		{
+			lock.unlockReadOnly();
+		}
+
+		for (Segment segment : current)
+		{
+			accumulate(segment.index, words, accumulator, partial);
+		}
+		return accumulator.results(documents(), limit);
+	}
+
+	/**
+	 * Adds the matches of one index to the accumulator.
+	 *
+	 * @param index
+	 * 			index to search
+	 * @param words
+	 * 			each individual query
+	 * @param accumulator
+	 * 			adds up the frequency and position of every document found
+	 * @param partial
+	 * 			whether to match the start of words instead of whole words
+	 */
+	private static void accumulate(InvertedIndex index, String[] words, ScoreAccumulator accumulator, boolean partial)
+	{
+		if (partial)
+		{
+			index.accumulatePartial(words, accumulator);
+		}
+		else
+		{
+			index.accumulateExact(words, accumulator);
+		}
+	}
+
+	/**
+	 * Writes the index after sealing the buffer into a segment.
+	 *
+	 * @param path
+	 * 			path to write to
+	 * @throws IOException
+	 */
+	@Override
+	public void writeToJSON(Path path) throws IOException
+	{
+		flush();
+		super.writeToJSON(path);
+	}
+
+	/**
+	 * Writes the index after sealing the buffer into a segment, rendering
+	 * ranges of words in parallel with the work queue.
+	 *
+	 * @param path
+	 * 			path to write to
+	 * @param queue
+	 * 			work queue used to render the words, or null to use this thread
+	 * @throws IOException
+	 */
+	@Override
+	public void writeToJSON(Path path, WorkQueue queue) throws IOException
+	{
+		flush();
+		super.writeToJSON(path, queue);
+	}
+
+	/**
+	 * Saves the index after sealing the buffer into a segment.
+	 *
+	 * @param path
+	 * 			file to write to
+	 * @throws IOException
+	 */
+	@Override
+	public void save(Path path) throws IOException
+	{
+		flush();
+		super.save(path);
+	}
+
+	/**
+	 * Returns the words of every segment in sorted order, combining the
+	 * postings of words found in more than one segment.
+	 *
+	 * @return words and postings of the index
+	 */
+	@Override
+	protected Iterable<Map.Entry<String, PostingList>> postings()
+	{
+		Segment[] current = segments;
+		return postings(current);
+	}
+
+	/**
+	 * Returns the words of the segments in sorted order, combining the
+	 * postings of words found in more than one segment.
+	 *
+	 * @param segments
+	 * 			segments to combine
+	 * @return words and postings of the segments
+	 */
+	private static Iterable<Map.Entry<String, PostingList>> postings(Segment[] segments)
+	{
+		return () -> new MergingIterator(segments);
+	}
+
+	/**
+	 * Returns the number of words stored in the index.
+	 *
+	 * @return number of words
+	 */
+	@Override
+	public int words()
+	{
+		flush();
+		Segment[] current = segments;
+		if (current.length == 1)
+		{
+			return current[0].index.words();
+		}
+
+		int words = 0;
+		for (Iterator<Map.Entry<String, PostingList>> iterator = new MergingIterator(current, false); iterator.hasNext(); iterator.next())
+		{
+			words++;
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the number of words stored in the index.
+	 *
+	 * @return number of words
+	 */
+	@Override
+	public int numFlags()
+	{
+		return words();
+	}
+
+	/**
+	 * Tests whether the index contains the specified word in a document that
+	 * was not removed.
+	 *
+	 * @param word
+	 *            word to look for
+	 * @return true if the word is stored in the index
+	 */
+	@Override
+	public boolean contains(String word)
+	{
+		flush();
+		for (Segment segment : segments)
+		{
+			if (segment.index.contains(word))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * returns true if word and path is stored in the index
+	 * @param word
+	 * 			word to check
+	 * @param path
+	 * 			path to check
+	 * @return
+	 */
+	@Override
+	public boolean contains(String word, String path)
+	{
+		flush();
+		for (Segment segment : segments)
+		{
+			if (segment.index.contains(word, path))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * returns true if index contains word, path, and position
+	 * @param word
+	 * 			word to check
+	 * @param path
+	 * 			path to check
+	 * @param position
+	 * @return
+	 */
+	@Override
+	public boolean contains(String word, String path, int position)
+	{
+		flush();
+		for (Segment segment : segments)
+		{
+			if (segment.index.contains(word, path, position))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a string representation of this index.
+	 */
+	@Override
+	public String toString()
+	{
+		flush();
+		return super.toString();
+	}
+
+	/**
+	 * Merges the segments of the lowest full level until no level is full.
+	 */
+	private class MergeTask implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				int level;
+				while ((level = mergeLevel(segments)) >= 0)
+				{
+					ArrayList<Segment> merged = new ArrayList<>();
+					for (Segment segment : segments)
+					{
+						if (segment.level == level)
+						{
+							merged.add(segment);
+						}
+					}
+
+					Segment[] array = merged.toArray(new Segment[0]);
+					replace(array, merge(array), level + 1);
+					logger.debug("Merged " + array.length + " segments of level " + level);
+				}
+			}
+			finally
+			{
+				synchronized (mergeLock)
+				{
+					merging = false;
+					mergeLock.notifyAll();
+				}
+			}
+			scheduleMerge();
+		}
+	}
+
+	/**
+	 * An immutable part of the index and the number of merges it went through.
+	 */
+	private static class Segment
+	{
+		private final InvertedIndex index;
+		private final int level;
+
+		public Segment(InvertedIndex index, int level)
+		{
+			this.index = index;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Iterates through the words of several segments in sorted order.
+	 */
+	private static class MergingIterator implements Iterator<Map.Entry<String, PostingList>>
+	{
+		private final PriorityQueue<Cursor> cursors;
+		private final boolean combine;
+
+		public MergingIterator(Segment[] segments)
+		{
+			this(segments, true);
+		}
+
+		/**
+		 * @param segments
+		 * 			segments to iterate through
+		 * @param combine
+		 * 			whether to combine the postings of words found in more than
+		 * 			one segment, or just return the first of them
+		 */
+		public MergingIterator(Segment[] segments, boolean combine)
+		{
+			this.combine = combine;
+			cursors = new PriorityQueue<>(Math.max(1, segments.length));
+			for (Segment segment : segments)
+			{
+				Cursor cursor = new Cursor(segment.index.postings().iterator());
+				if (cursor.advance())
+				{
+					cursors.add(cursor);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return !cursors.isEmpty();
+		}
+
+		@Override
+		public Map.Entry<String, PostingList> next()
+		{
+			if (cursors.isEmpty())
+			{
+				throw new NoSuchElementException();
+			}
+
+			Cursor cursor = cursors.poll();
+			String word = cursor.entry.getKey();
+			PostingList postings = cursor.entry.getValue();
+			if (!cursors.isEmpty() && cursors.peek().entry.getKey().equals(word))
+			{
+				PostingList combined = new PostingList();
+				if (combine)
+				{
+					combined.addAll(postings, null);
+				}
+				while (!cursors.isEmpty() && cursors.peek().entry.getKey().equals(word))
+				{
+					Cursor other = cursors.poll();
+					if (combine)
+					{
+						combined.addAll(other.entry.getValue(), null);
+					}
+					if (other.advance())
+					{
+						cursors.add(other);
+					}
+				}
+				postings = combine ? combined : postings;
+			}
+
+			if (cursor.advance())
+			{
+				cursors.add(cursor);
+			}
+			return new AbstractMap.SimpleImmutableEntry<>(word, postings);
+		}
+	}
+
+	/**
+	 * The current word of one segment being iterated through.
+	 */
+	private static class Cursor implements Comparable<Cursor>
+	{
+		private final Iterator<Map.Entry<String, PostingList>> iterator;
+		private Map.Entry<String, PostingList> entry;
+
+		public Cursor(Iterator<Map.Entry<String, PostingList>> iterator)
+		{
+			this.iterator = iterator;
+		}
+
+		/**
+		 * Moves to the next word of the segment.
+		 *
+		 * @return false if the segment has no more words
+		 */
+		public boolean advance()
+		{
+			entry = iterator.hasNext() ? iterator.next() : null;
+			return entry != null;
+		}
+
+		@Override
+		public int compareTo(Cursor other)
+		{
+			return entry.getKey().compareTo(other.entry.getKey());
+		}
+	}
+}
@@ -0,0 +1,650 @@
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Sorted dictionary of terms that stores most of its terms packed into a
+ * single char array with shared-prefix (front) compression. Terms are grouped
+ * in blocks of {@link #BLOCK_SIZE}; the first term of every block is stored in
+ * full and the rest only store the suffix that differs from the term before
+ * it. Every packed term has an ordinal, and all of the terms that start with a
+ * prefix form a contiguous range of ordinals.
+ *
+ * New terms are first kept in a small sorted map, which is merged into the
+ * packed terms once it grows too large or when {@link #compact()} is called.
+ * Terms are sorted the same way as {@link String#compareTo(String)}. This class
+ * is not thread-safe.
+ *
+ * @param <V> type of value stored for every term
+ * @author Benny Fung
+ */
+public class TermDictionary<V> implements Iterable<Map.Entry<String, V>>
+{
+	/** Number of terms in every block of packed terms. */
+	public static final int BLOCK_SIZE = 16;
+
+	/** Minimum number of pending terms before they are merged automatically. */
+	private static final int MIN_PENDING = 1024;
+
+	/** Packed terms, stored as length-prefixed shared prefixes and suffixes. */
+	private char[] data;
+
+	/** Offset in {@link #data} of the first term of every block. */
+	private int[] blocks;
+
+	/** Values of the packed terms, indexed by ordinal. */
+	private Object[] values;
+
+	/** Number of packed terms. */
+	private int size;
+
+	/** Terms added since the last time the terms were packed. */
+	private final TreeMap<String, V> pending;
+
+	/**
+	 * Initializes an empty dictionary.
+	 */
+	public TermDictionary()
+	{
+		data = new char[0];
+		blocks = new int[0];
+		values = new Object[0];
+		size = 0;
+		pending = new TreeMap<>();
+	}
+
+	/**
+	 * Returns the value stored for a term.
+	 *
+	 * @param term
+	 * 			term to look up
+	 * @return value of the term, or null if the term is not stored
+	 */
+	public V get(String term)
+	{
+		int ordinal = bound(term, false);
+		if (ordinal < size && compare(ordinal, term, false) == 0)
+		{
+			return valueAt(ordinal);
+		}
+		return pending.get(term);
+	}
+
+	/**
+	 * Returns the ordinal of a packed term. Pending terms have no ordinal;
+	 * call {@link #compact()} first to include every term.
+	 *
+	 * @param term
+	 * 			term to look up
+	 * @return ordinal of the term, or -1 if the term is not packed
+	 */
+	public int ordinal(String term)
+	{
+		int ordinal = bound(term, false);
+		return ordinal < size && compare(ordinal, term, false) == 0 ? ordinal : -1;
+	}
+
+	/**
+	 * Stores the value for a term, replacing the previous value if the term is
+	 * already stored.
+	 *
+	 * @param term
+	 * 			term to store
+	 * @param value
+	 * 			value of the term
+	 */
+	public void put(String term, V value)
+	{
+		int ordinal = bound(term, false);
+		if (ordinal < size && compare(ordinal, term, false) == 0)
+		{
+			values[ordinal] = value;
+			return;
+		}
+
+		pending.put(term, value);
+		if (pending.size() > Math.max(MIN_PENDING, size >> 2))
+		{
+			compact();
+		}
+	}
+
+	/**
+	 * Tests whether a term is stored.
+	 *
+	 * @param term
+	 * 			term to look for
+	 * @return true if the term is stored
+	 */
+	public boolean containsKey(String term)
+	{
+		return get(term) != null;
+	}
+
+	/**
+	 * Returns the number of terms stored.
+	 *
+	 * @return number of terms
+	 */
+	public int size()
+	{
+		return size + pending.size();
+	}
+
+	/**
+	 * Passes the value of every term that starts with the prefix to the
+	 * consumer, in term order for the packed terms followed by any pending
+	 * terms.
+	 *
+	 * @param prefix
+	 * 			prefix of the terms
+	 * @param consumer
+	 * 			consumer of the values
+	 */
+	public void forEachPrefix(String prefix, Consumer<V> consumer)
+	{
+		int end = bound(prefix, true);
+		for (int ordinal = bound(prefix, false); ordinal < end; ordinal++)
+		{
+			consumer.accept(valueAt(ordinal));
+		}
+
+		for (Map.Entry<String, V> entry : pending.tailMap(prefix).entrySet())
+		{
+			if (!entry.getKey().startsWith(prefix))
+			{
+				break;
+			}
+			consumer.accept(entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns the range of ordinals of the packed terms that start with the
+	 * prefix. Pending terms are not included; call {@link #compact()} first to
+	 * include every term.
+	 *
+	 * @param prefix
+	 * 			prefix of the terms
+	 * @return array with the first ordinal and one past the last ordinal
+	 */
+	public int[] range(String prefix)
+	{
+		return new int[] { bound(prefix, false), bound(prefix, true) };
+	}
+
+	/**
+	 * Returns the value of a packed term.
+	 *
+	 * @param ordinal
+	 * 			ordinal of the term
+	 * @return value of the term
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int ordinal)
+	{
+		return (V) values[ordinal];
+	}
+
+	/**
+	 * Merges the pending terms into the packed terms.
+	 */
+	public void compact()
+	{
+		if (pending.isEmpty())
+		{
+			return;
+		}
+
+		Packer packer = new Packer(size + pending.size(), data.length);
+		Iterator<Map.Entry<String, V>> iterator = iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<String, V> entry = iterator.next();
+			packer.add(entry.getKey(), entry.getValue());
+		}
+		packer.finish();
+	}
+
+	/**
+	 * Starts replacing every term of the dictionary by the terms added to the
+	 * returned packer, which must be added in sorted order without
+	 * duplicates. They are packed as they are added rather than kept pending
+	 * first, which is much faster for terms that are already sorted, such as
+	 * the words of an index file. The dictionary only changes once
+	 * {@link Packer#finish()} is called.
+	 *
+	 * @param terms
+	 * 			number of terms that will be added
+	 * @param capacity
+	 * 			estimated number of chars needed
+	 * @return packer to add the terms to
+	 */
+	public Packer packer(int terms, int capacity)
+	{
+		return new Packer(terms, capacity);
+	}
+
+	/**
+	 * Returns an iterator over the terms and values in sorted order.
+	 */
+	@Override
+	public Iterator<Map.Entry<String, V>> iterator()
+	{
+		return new MergingIterator();
+	}
+
+	/**
+	 * Finds the first ordinal whose term compares greater than or equal to the
+	 * key, or strictly greater than the key, when only comparing the first
+	 * characters of the term up to the length of the key.
+	 *
+	 * @param key
+	 * 			term or prefix to look for
+	 * @param strict
+	 * 			whether to find the first term strictly greater than the key
+	 * @return ordinal between 0 and the number of packed terms
+	 */
+	private int bound(String key, boolean strict)
+	{
+		// find the first block whose first term matches
+		int low = 0;
+		int high = blocks.length;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (matches(compareHead(middle, key), strict))
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+
+		if (low == 0)
+		{
+			return 0;
+		}
+
+		// the answer is either in the block before it or is its first term
+		Cursor cursor = new Cursor(low - 1);
+		cursor.next();
+		while (cursor.next())
+		{
+			if (matches(compare(cursor.term, 0, cursor.length, key, true), strict))
+			{
+				return cursor.ordinal;
+			}
+		}
+		return Math.min(low * BLOCK_SIZE, size);
+	}
+
+	/**
+	 * Returns whether a comparison result satisfies the bound being searched.
+	 *
+	 * @param comparison
+	 * 			result of comparing a term to the key
+	 * @param strict
+	 * 			whether the term must be strictly greater than the key
+	 * @return true if the term satisfies the bound
+	 */
+	private static boolean matches(int comparison, boolean strict)
+	{
+		return strict ? comparison > 0 : comparison >= 0;
+	}
+
+	/**
+	 * Compares a packed term to a key.
+	 *
+	 * @param ordinal
+	 * 			ordinal of the term
+	 * @param key
+	 * 			key to compare to
+	 * @param truncate
+	 * 			whether to only compare up to the length of the key
+	 * @return negative, zero, or positive if the term is less than, equal to,
+	 *         or greater than the key
+	 */
+	private int compare(int ordinal, String key, boolean truncate)
+	{
+		Cursor cursor = new Cursor(ordinal / BLOCK_SIZE);
+		while (cursor.ordinal < ordinal)
+		{
+			cursor.next();
+		}
+		return compare(cursor.term, 0, cursor.length, key, truncate);
+	}
+
+	/**
+	 * Compares the first term of a block to a key in place, only comparing up
+	 * to the length of the key.
+	 *
+	 * @param block
+	 * 			block of the term
+	 * @param key
+	 * 			key to compare to
+	 * @return negative, zero, or positive if the term is less than, equal to,
+	 *         or greater than the key
+	 */
+	private int compareHead(int block, String key)
+	{
+		int offset = skipLength(blocks[block]);
+		int length = readLength(offset);
+		return compare(data, skipLength(offset), length, key, true);
+	}
+
+	/**
+	 * Compares part of a char array to a key the same way as
+	 * {@link String#compareTo(String)}, optionally only comparing up to the
+	 * length of the key.
+	 *
+	 * @param chars
+	 * 			array holding the term
+	 * @param offset
+	 * 			offset of the term
+	 * @param length
+	 * 			length of the term
+	 * @param key
+	 * 			key to compare to
+	 * @param truncate
+	 * 			whether to only compare up to the length of the key
+	 * @return negative, zero, or positive if the term is less than, equal to,
+	 *         or greater than the key
+	 */
+	private static int compare(char[] chars, int offset, int length, String key, boolean truncate)
+	{
+		if (truncate && length > key.length())
+		{
+			length = key.length();
+		}
+
+		int shared = Math.min(length, key.length());
+		for (int i = 0; i < shared; i++)
+		{
+			char c = chars[offset + i];
+			char k = key.charAt(i);
+			if (c != k)
+			{
+				return c - k;
+			}
+		}
+		return length - key.length();
+	}
+
+	/**
+	 * Reads a length stored in one char, or in two chars if the high bit of
+	 * the first char is set.
+	 *
+	 * @param offset
+	 * 			offset of the length in {@link #data}
+	 * @return length stored at the offset
+	 */
+	private int readLength(int offset)
+	{
+		char first = data[offset];
+		if ((first & 0x8000) == 0)
+		{
+			return first;
+		}
+		return ((first & 0x7FFF) << 15) | data[offset + 1];
+	}
+
+	/**
+	 * Returns the offset after the length stored at an offset.
+	 *
+	 * @param offset
+	 * 			offset of the length in {@link #data}
+	 * @return offset after the length
+	 */
+	private int skipLength(int offset)
+	{
+		return (data[offset] & 0x8000) == 0 ? offset + 1 : offset + 2;
+	}
+
+	/**
+	 * Decodes the packed terms one at a time, starting at the first term of a
+	 * block. Every reader uses its own cursor, so lookups do not change the
+	 * state of the dictionary.
+	 */
+	private class Cursor
+	{
+		/** Holds the last decoded term. */
+		private char[] term;
+		private int length;
+		private int offset;
+		/** Ordinal of the last decoded term. */
+		private int ordinal;
+		/** Ordinal to stop decoding at. */
+		private final int end;
+
+		/**
+		 * Starts a cursor that decodes the terms of a single block.
+		 *
+		 * @param block
+		 * 			block to decode
+		 */
+		public Cursor(int block)
+		{
+			this(block, Math.min((block + 1) * BLOCK_SIZE, size));
+		}
+
+		/**
+		 * Starts a cursor that decodes the terms from the start of a block up to
+		 * an ordinal.
+		 *
+		 * @param block
+		 * 			block to start at
+		 * @param end
+		 * 			ordinal to stop decoding at
+		 */
+		public Cursor(int block, int end)
+		{
+			term = new char[32];
+			length = 0;
+			offset = block < blocks.length ? blocks[block] : data.length;
+			ordinal = block * BLOCK_SIZE - 1;
+			this.end = end;
+		}
+
+		/**
+		 * Decodes the next term.
+		 *
+		 * @return false if there are no more terms to decode
+		 */
+		public boolean next()
+		{
+			if (ordinal + 1 >= end)
+			{
+				return false;
+			}
+
+			int shared = readLength(offset);
+			offset = skipLength(offset);
+			int suffix = readLength(offset);
+			offset = skipLength(offset);
+
+			if (shared + suffix > term.length)
+			{
+				term = Arrays.copyOf(term, Math.max(shared + suffix, term.length * 2));
+			}
+
+			System.arraycopy(data, offset, term, shared, suffix);
+			offset += suffix;
+			length = shared + suffix;
+			ordinal++;
+			return true;
+		}
+	}
+
+	/**
+	 * Builds new packed terms from terms added in sorted order, and replaces
+	 * the terms of the dictionary once finished.
+	 */
+	public class Packer
+	{
+		private char[] packed;
+		private int length;
+		private final int[] starts;
+		private final Object[] packedValues;
+		private int count;
+		private String previous;
+
+		/**
+		 * @param terms
+		 * 			number of terms that will be added
+		 * @param capacity
+		 * 			estimated number of chars needed
+		 */
+		private Packer(int terms, int capacity)
+		{
+			packed = new char[Math.max(16, capacity + capacity / 4)];
+			length = 0;
+			starts = new int[(terms + BLOCK_SIZE - 1) / BLOCK_SIZE];
+			packedValues = new Object[terms];
+			count = 0;
+			previous = "";
+		}
+
+		/**
+		 * Adds the next term in sorted order.
+		 *
+		 * @param term
+		 * 			term to add
+		 * @param value
+		 * 			value of the term
+		 */
+		public void add(String term, V value)
+		{
+			int shared = 0;
+			if (count % BLOCK_SIZE == 0)
+			{
+				starts[count / BLOCK_SIZE] = length;
+			}
+			else
+			{
+				int limit = Math.min(previous.length(), term.length());
+				while (shared < limit && previous.charAt(shared) == term.charAt(shared))
+				{
+					shared++;
+				}
+			}
+
+			int suffix = term.length() - shared;
+			ensure(length + 4 + suffix);
+			writeLength(shared);
+			writeLength(suffix);
+			term.getChars(shared, term.length(), packed, length);
+			length += suffix;
+
+			packedValues[count++] = value;
+			previous = term;
+		}
+
+		/**
+		 * Replaces the terms of the dictionary, including the pending terms.
+		 */
+		public void finish()
+		{
+			pending.clear();
+			data = Arrays.copyOf(packed, length);
+			blocks = starts;
+			values = packedValues;
+			size = count;
+		}
+
+		/**
+		 * Writes a length in one char, or in two chars if it does not fit in 15
+		 * bits.
+		 *
+		 * @param value
+		 * 			length to write
+		 */
+		private void writeLength(int value)
+		{
+			if (value < 0x8000)
+			{
+				packed[length++] = (char) value;
+			}
+			else
+			{
+				packed[length++] = (char) (0x8000 | (value >>> 15));
+				packed[length++] = (char) (value & 0x7FFF);
+			}
+		}
+
+		/**
+		 * Makes sure the packed array can hold at least the given number of chars.
+		 *
+		 * @param capacity
+		 * 			minimum capacity needed
+		 */
+		private void ensure(int capacity)
+		{
+			if (capacity > packed.length)
+			{
+				packed = Arrays.copyOf(packed, Math.max(capacity, packed.length * 2));
+			}
+		}
+	}
+
+	/**
+	 * Iterates through the packed terms and the pending terms at the same time,
+	 * returning whichever term comes first.
+	 */
+	private class MergingIterator implements Iterator<Map.Entry<String, V>>
+	{
+		private final Iterator<Map.Entry<String, V>> others;
+		private Map.Entry<String, V> other;
+		private final Cursor cursor;
+		private String current;
+
+		public MergingIterator()
+		{
+			others = pending.entrySet().iterator();
+			other = others.hasNext() ? others.next() : null;
+			cursor = new Cursor(0, size);
+			advance();
+		}
+
+		/**
+		 * Decodes the next packed term.
+		 */
+		private void advance()
+		{
+			current = cursor.next() ? new String(cursor.term, 0, cursor.length) : null;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return current != null || other != null;
+		}
+
+		@Override
+		public Map.Entry<String, V> next()
+		{
+			Map.Entry<String, V> entry;
+			if (current != null && (other == null || current.compareTo(other.getKey()) < 0))
+			{
+				entry = new AbstractMap.SimpleImmutableEntry<>(current, valueAt(cursor.ordinal));
+				advance();
+			}
+			else if (other != null)
+			{
+				entry = other;
+				other = others.hasNext() ? others.next() : null;
+			}
+			else
+			{
+				throw new NoSuchElementException();
+			}
+			return entry;
+		}
+	}
+}
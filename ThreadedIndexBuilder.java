@@ -1,12 +1,24 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.DirectoryStream; 
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Class that traverses through a directory and builds the index
+ *
+ * By default the directory is walked on the calling thread and every HTML
+ * file is parsed by a task of its own. With a batch size set, the walk itself
+ * runs on the work queue, one task per directory, and the files are grouped
+ * into batches of about the same number of bytes. Each batch is parsed into
+ * one local index, which is merged into the shared index once.
  * @author Benny Fung
  */
 public class ThreadedIndexBuilder
@@ -14,12 +26,53 @@ public class ThreadedIndexBuilder
 	private static final Logger logger = LogManager.getLogger();
 	private final WorkQueue queue;
 	
+	/** Default bytes of HTML each batch task parses. */
+	public static final int DEFAULT_BATCH = 1 << 20;
+	
+	/** Least bytes a file counts for in a batch, as opening even an empty file has a cost. */
+	private static final long MIN_FILE = 4096;
+	
+	/** Manifest of the last build, or null to index every file. */
+	private IndexManifest manifest;
+	
+	/** Bytes of HTML each batch task parses, or 0 to parse one file per task. */
+	private long batchSize;
+	
+	/** Files of directories that did not fill a batch of their own, or null outside a walk. */
+	private Batch leftover;
+	
 	public ThreadedIndexBuilder(ThreadedInvertedIndex index, WorkQueue queue) 
 	{
 		super();
 		this.queue = queue;
 	}
 	
+	/**
+	 * Only parses the files added or changed since the build of a manifest.
+	 * The traversal starts from the index saved with the manifest, which
+	 * already holds the words of the unchanged files.
+	 * @param manifest
+	 * 			manifest of the last build, which records the files of the next
+	 * 			one, or null to index every file
+	 */
+	public void setManifest(IndexManifest manifest)
+	{
+		this.manifest = manifest;
+	}
+	
+	/**
+	 * Walks subdirectories in parallel and parses files in batches of about
+	 * the given number of bytes, one local index per batch. A file larger
+	 * than a batch is parsed on its own.
+	 * @param batchSize
+	 * 			bytes of HTML each task parses, or 0 to walk the directory on
+	 * 			the calling thread and parse one file per task
+	 */
+	public void setBatchSize(long batchSize)
+	{
+		this.batchSize = Math.max(0, batchSize);
+	}
+	
 	/**
 	 * Directory to traverse
 	 * @param path
@@ -30,8 +83,23 @@ public class ThreadedIndexBuilder
 	 */
 	public void traverse(Path path, ThreadedInvertedIndex index) throws IOException 
 	{
-		traverseHelper(path, index);
+		if (manifest != null)
+		{
+			manifest.restore(index);
+		}
+		if (batchSize > 0)
+		{
+			traverseBatches(path, index);
+		}
+		else
+		{
+			traverseHelper(path, index);
+		}
 		queue.finish();
+		if (manifest != null)
+		{
+			manifest.finish();
+		}
 	}
 		
 	/**
@@ -61,6 +129,102 @@ public class ThreadedIndexBuilder
 		}		
 	}
 	
+	/**
+	 * Walks a directory on the work queue and parses its files in batches.
+	 * Once every directory was walked, the files left over by directories
+	 * that did not fill a batch are parsed as a last batch.
+	 * @param path
+	 * 			path name to take in
+	 * @param index
+	 * 			takes in the threaded inverted index data
+	 */
+	private void traverseBatches(Path path, ThreadedInvertedIndex index)
+	{
+		Batch rest;
+		synchronized (this)
+		{
+			leftover = new Batch();
+		}
+		queue.execute(new WalkTask(path, index));
+		queue.finish();
+		
+		synchronized (this)
+		{
+			rest = leftover;
+			leftover = null;
+		}
+		if (!rest.files.isEmpty())
+		{
+			queue.execute(new BatchTask(rest, index));
+		}
+	}
+	
+	/**
+	 * Adds the files a directory did not fill a batch with to the files left
+	 * over by other directories, and parses them once they fill a batch.
+	 * @param batch
+	 * 			files left over by a directory
+	 * @param index
+	 * 			takes in the threaded inverted index data
+	 */
+	private synchronized void spill(Batch batch, ThreadedInvertedIndex index)
+	{
+		leftover.files.addAll(batch.files);
+		leftover.bytes += batch.bytes;
+		if (leftover.bytes >= batchSize)
+		{
+			queue.execute(new BatchTask(leftover, index));
+			leftover = new Batch();
+		}
+	}
+	
+	/**
+	 * Tells whether a path names an HTML file.
+	 * @param path
+	 * 			path name to take in
+	 * @return
+	 * 		true if the path ends in "htm" or "html"
+	 */
+	private static boolean isHTML(Path path)
+	{
+		String name = path.toString().toLowerCase();
+		return name.endsWith("htm") || name.endsWith("html");
+	}
+	
+	/**
+	 * Parses a file into a local index, unless the manifest tells it did not
+	 * change, in which case its words are already in the index.
+	 * @param path
+	 * 			file to parse
+	 * @param local
+	 * 			local index to add the words of the file to
+	 * @param index
+	 * 			takes in the threaded inverted index data
+	 * @return
+	 * 		true if the file was parsed, or false if it was unchanged or could not be read
+	 */
+	private boolean parse(Path path, InvertedIndex local, ThreadedInvertedIndex index)
+	{
+		try 
+		{
+			if (manifest != null && !manifest.changed(path))
+			{
+				return false;
+			}
+			InvertedIndexBuilderHTML.buildIndex(path, local);
+			return true;
+		} 
+		catch (IOException e) 
+		{
+			if (manifest != null)
+			{
+				manifest.failed(path);
+			}
+			logger.debug("Unable to build to index");
+			return false;
+		}
+	}
+	
 	/**
 	 * Handles index building, particularly adding the path and contents into the threaded index structure
 	 */
@@ -78,16 +242,115 @@ public class ThreadedIndexBuilder
 		@Override
 		public void run()
 		{
-			try 
+			InvertedIndex local = new InvertedIndex(index.documents());
+			if (parse(path, local, index))
+			{
+				index.addAll(local);
+			}
+		}
+	}
+	
+	/**
+	 * Lists a directory, walking each subdirectory in a task of its own and
+	 * adding its HTML files to batches
+	 */
+	private class WalkTask implements Runnable
+	{
+		private final ThreadedInvertedIndex index;
+		private final Path path;
+		private Batch batch;
+		
+		public WalkTask(Path path, ThreadedInvertedIndex index)
+		{
+			this.index = index;
+			this.path = path;
+			this.batch = new Batch();
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>()
+				{
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+					{
+						if (attributes.isDirectory())
+						{
+							queue.execute(new WalkTask(file, index));
+						}
+						else if (isHTML(file))
+						{
+							batch.files.add(file);
+							batch.bytes += Math.max(MIN_FILE, attributes.size());
+							if (batch.bytes >= batchSize)
+							{
+								queue.execute(new BatchTask(batch, index));
+								batch = new Batch();
+							}
+						}
+						return FileVisitResult.CONTINUE;
+					}
+					
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e)
+					{
+						logger.debug("Unable to walk " + file + ": " + e);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+			catch (IOException e)
 			{
-				InvertedIndex local = new InvertedIndex();
-				InvertedIndexBuilderHTML.buildIndex(path, local);
-				index.addAll(local);	
-			} 
-			catch (IOException e) 
+				logger.debug("Unable to walk " + path + ": " + e);
+			}
+			
+			if (!batch.files.isEmpty())
 			{
-				logger.debug("Unable to build to index");
+				spill(batch, index);
 			}
 		}
 	}
+	
+	/**
+	 * Parses a batch of files into one local index and merges it into the
+	 * threaded index structure
+	 */
+	private class BatchTask implements Runnable
+	{
+		private final ThreadedInvertedIndex index;
+		private final Batch batch;
+		
+		public BatchTask(Batch batch, ThreadedInvertedIndex index)
+		{
+			this.index = index;
+			this.batch = batch;
+		}
+		
+		@Override
+		public void run()
+		{
+			InvertedIndex local = new InvertedIndex(index.documents());
+			boolean parsed = false;
+			for (Path path : batch.files)
+			{
+				parsed |= parse(path, local, index);
+			}
+			if (parsed)
+			{
+				index.addAll(local);
+			}
+		}
+	}
+	
+	/**
+	 * Files to parse in one task, along with about how many bytes they hold
+	 */
+	private static class Batch
+	{
+		private final ArrayList<Path> files = new ArrayList<>();
+		private long bytes;
+	}
 }
\ No newline at end of file
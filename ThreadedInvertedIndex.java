@@ -15,6 +15,18 @@ public class ThreadedInvertedIndex extends InvertedIndex
 		lock = new ReadWriteLock();
 	}
 	
+	/**
+	 * Initializes the index using an existing document table.
+	 * 
+	 * @param documents
+	 * 			document table to use
+	 */
+	public ThreadedInvertedIndex(DocumentTable documents)
+	{
+		super(documents);
+		lock = new ReadWriteLock();
+	}
+	
 	/**
 	 * Adds the word and the paths as well as the position it was found to the index.
 	 * 
@@ -39,6 +51,30 @@ public class ThreadedInvertedIndex extends InvertedIndex
 		}
 	}
 	
+	/**
+	 * Adds the word and the id of the document as well as the position it was found to the index.
+	 * 
+	 * @param word
+	 * 			takes in a word to add
+	 * @param document
+	 * 			takes in the id of the document
+	 * @param position 
+	 * 			takes in the position of the word and document to add
+	 */
+	public void add(String word, int document, int position)
+	{
+		lock.lockReadWrite();
+		try
+		{
+			super.add(word, document, position);	
+		}
+		
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+	
 	/**
 	 * search method that takes in a query and searches through the index for an exact match
 	 * @param query
@@ -60,6 +96,30 @@ public class ThreadedInvertedIndex extends InvertedIndex
 		}
 	}
 	
+	/**
+	 * search method that takes in a query and searches through the index for an exact match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best exact search results
+	 */
+	public ArrayList<SearchResult> exactSearch(String[] words, int limit)
+	{
+		lock.lockReadOnly();
+		try
+		{
+			return super.exactSearch(words, limit);
+		}
+		
+		finally
+		{
+			lock.unlockReadOnly();
+		}
+	}
+	
 	/**
 	 * search method that takes in a query and searches through the index for a partial match 
 	 * @param query
@@ -80,6 +140,30 @@ public class ThreadedInvertedIndex extends InvertedIndex
 			lock.unlockReadOnly();
 		}
 	}
+	
+	/**
+	 * search method that takes in a query and searches through the index for a partial match,
+	 * only returning the best results
+	 * @param words
+	 * 			each individual query
+	 * @param limit
+	 * 			maximum number of results to return, or 0 for all of them
+	 * @return
+	 * 		returns a list of the sorted best partial search results
+	 */
+	public ArrayList<SearchResult> partialSearch(String words[], int limit)
+	{
+		lock.lockReadOnly();
+		try
+		{
+			return super.partialSearch(words, limit);
+		}
+		
+		finally
+		{
+			lock.unlockReadOnly();
+		}
+	}
 
 	/**
 	 * Adds the array of words at once, assuming the first word in the array is
@@ -95,12 +179,98 @@ public class ThreadedInvertedIndex extends InvertedIndex
 		lock.lockReadWrite();
 		try
 		{	
-			int position = 1;
-			for (String i : words)
-			{
-				super.add(i, path.toString(), position);
-				position++;
-			} 
+			super.addAll(words, path);
+		}
+		
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+	
+	/**
+	 * Adds the array of words at once for the document id, assuming the first
+	 * word in the array is at position 1.
+	 *
+	 * @param words
+	 *            array of words to add
+	 * @param document
+	 *            id of the document
+	 */
+	public void addAll(String[] words, int document)
+	{
+		lock.lockReadWrite();
+		try
+		{	
+			super.addAll(words, document);
+		}
+		
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+	
+	/**
+	 * Removes a document from the index. Its id is marked as deleted right
+	 * away, and its postings are reclaimed by the next {@link #compact()}.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @return true if the document was in the document table
+	 */
+	public boolean remove(String path)
+	{
+		lock.lockReadWrite();
+		try
+		{	
+			return super.remove(path);
+		}
+		
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+	
+	/**
+	 * Replaces the words of a document under a new id. Searches either see
+	 * the old document or the new one, never neither or both.
+	 *
+	 * @param path
+	 *            path of the document
+	 * @param words
+	 *            array of words to add
+	 */
+	public void replace(String path, String[] words)
+	{
+		lock.lockReadWrite();
+		try
+		{	
+			documents().remove(path);
+			super.addAll(words, documents().add(path));
+		}
+		
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+	
+	/**
+	 * Adds the words of cleaned text for the document id as they are parsed.
+	 *
+	 * @param text
+	 *            text to parse and add
+	 * @param document
+	 *            id of the document
+	 */
+	public void addText(String text, int document)
+	{
+		lock.lockReadWrite();
+		try
+		{	
+			super.addText(text, document);
 		}
 		
 		finally
@@ -147,6 +317,69 @@ public class ThreadedInvertedIndex extends InvertedIndex
 		}
 	}
 	
+	/**
+	 * Writes the index to JSON, rendering ranges of words in parallel with the
+	 * work queue.
+	 * 
+	 * @param path
+	 * 			path to add
+	 * @param queue
+	 * 			work queue used to render the words, or null to use this thread
+	 * @throws IOException
+	 */
+	public void writeToJSON(Path path, WorkQueue queue) throws IOException
+	{
+		lock.lockReadOnly();
+		try
+		{
+			super.writeToJSON(path, queue);
+		}
+		
+		finally
+		{
+			lock.unlockReadOnly();
+		}
+	}
+	
+	/**
+	 * Saves the index to a binary file.
+	 * 
+	 * @param path
+	 * 			file to write to
+	 * @throws IOException
+	 */
+	public void save(Path path) throws IOException
+	{
+		lock.lockReadOnly();
+		try
+		{
+			super.save(path);
+		}
+		
+		finally
+		{
+			lock.unlockReadOnly();
+		}
+	}
+	
+	/**
+	 * Packs the words added since the last call into the compact term
+	 * dictionary.
+	 */
+	public void compact()
+	{
+		lock.lockReadWrite();
+		try
+		{
+			super.compact();
+		}
+		
+		finally
+		{
+			lock.unlockReadWrite();
+		}
+	}
+	
 	/**
 	 * Returns the number of words stored in the index.
 	 *
@@ -167,7 +400,8 @@ public class ThreadedInvertedIndex extends InvertedIndex
 	}
 	
 	/**
-	 * Tests whether the index contains the specified word.
+	 * Tests whether the index contains the specified word in a document that
+	 * was not removed.
 	 *
 	 * @param word
 	 *            word to look for
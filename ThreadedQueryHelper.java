@@ -4,7 +4,6 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path; 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.TreeMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -44,13 +43,30 @@ public class ThreadedQueryHelper implements QueryHelperInterface
 	 */
 	@Override
 	public void parseQuery(Path path, boolean exact) throws IOException
+	{
+		parseQuery(path, exact, 0);
+	}
+	
+	/**
+	 * Method that parses queries by reading the file line by line and calling the appropriate exact/partial search method,
+	 * only keeping the best results of each query
+	 * @param path
+	 * 			path to input
+	 * @param exact
+	 * 			boolean exact which is used to later call the exact/partial search methods accordingly
+	 * @param limit
+	 * 			maximum number of results to keep per query, or 0 to keep all of them
+	 * @throws IOException
+	 */
+	@Override
+	public void parseQuery(Path path, boolean exact, int limit) throws IOException
 	{
 		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);)
 		{	
 			String line;
 			while ((line = reader.readLine()) != null)
 			{
-				queue.execute(new SearchTask(line, map, index, exact));
+				queue.execute(new SearchTask(line, map, index, exact, limit));
 			}
 			queue.finish();
 		}
@@ -63,26 +79,27 @@ public class ThreadedQueryHelper implements QueryHelperInterface
 	{
 		private String line;
 		private boolean exact;
+		private int limit;
 		
-		public SearchTask(String line, TreeMap<String, ArrayList<SearchResult>> map, ThreadedInvertedIndex index, boolean exact)
+		public SearchTask(String line, TreeMap<String, ArrayList<SearchResult>> map, ThreadedInvertedIndex index, boolean exact, int limit)
 		{
 			this.line = line;
 			this.exact = exact;
+			this.limit = limit;
 		}
 		
 		@Override
 		public void run()
 		{
-			String[] words = WordParser.parseWords(line);
+			String[] words = WordParser.sortedWords(line);
 			if (words.length == 0) 
 			{
 				return; 
 			}
 			
-			Arrays.sort(words);
 			line = String.join(" ", words);
 			
-			ArrayList<SearchResult> local = exact ? index.exactSearch(words) : index.partialSearch(words);
+			ArrayList<SearchResult> local = exact ? index.exactSearch(words, limit) : index.partialSearch(words, limit);
 			
 			lock.lockReadWrite();
 			try
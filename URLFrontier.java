@@ -0,0 +1,380 @@
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frontier of a crawl: the links seen so far, shared by every crawl thread
+ * without locking.
+ *
+ * Seen links are kept as 64-bit fingerprints in an open-addressing table
+ * sized for the limit of the crawl, so a link costs 16 to 32 bytes however
+ * long it is and the table never grows. Two different links only collide
+ * with a chance of about n^2 / 2^65, which is negligible even for millions of
+ * links.
+ * Once the limit is reached no more fingerprints are added, and the number of
+ * accepted links never goes over the limit however many threads add links
+ * at once.
+ *
+ * For crawls too large for the table, the seen links can be kept in a
+ * {@link BloomFilter} instead, which needs only a few bits per link but may
+ * mistake a new link for a seen one at the rate it was created with. The
+ * fingerprints of the most recent links are also kept exactly, so that two
+ * threads adding the same link at once never both accept it.
+ * @author Benny Fung
+ */
+public class URLFrontier
+{
+	/** Marks an empty slot of the table. */
+	private static final long EMPTY = 0;
+
+	/** FNV-1a hash of nothing, which {@link #hash(long, ByteBuffer)} starts from. */
+	public static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+	/** FNV-1a prime every hashed character or byte is multiplied by. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** Largest number of slots of the table. */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/** Number of recent fingerprints kept exactly along with a filter. */
+	private static final int RECENT = 1 << 14;
+
+	/** Estimated bytes of each recent fingerprint in its set. */
+	private static final int RECENT_BYTES = 64;
+
+	/** Fingerprints of the seen links, in slots found by linear probing, or null with a filter. */
+	private final AtomicLongArray seen;
+	private final int mask;
+
+	/** Filter of the seen links, or null if they are kept in the table. */
+	private final BloomFilter filter;
+
+	/** Recent fingerprints added to the filter, and the order to forget them in. */
+	private final Set<Long> recent;
+	private final AtomicLongArray ring;
+	private final AtomicLong next;
+
+	/** Number of fingerprints added. */
+	private final AtomicLong added;
+
+	/** Most links accepted. */
+	private final int limit;
+
+	/** Number of links accepted, which only grows and never passes the limit. */
+	private final AtomicInteger accepted;
+
+	/**
+	 * Initializes an empty frontier.
+	 *
+	 * @param limit
+	 * 			most links accepted
+	 */
+	public URLFrontier(int limit)
+	{
+		this(limit, null);
+	}
+
+	/**
+	 * Initializes an empty frontier that keeps its seen links in a filter, or
+	 * in a table sized for the limit if there is no filter.
+	 *
+	 * @param limit
+	 * 			most links accepted
+	 * @param filter
+	 * 			empty filter for the seen links, or null
+	 */
+	public URLFrontier(int limit, BloomFilter filter)
+	{
+		this.limit = Math.max(0, limit);
+		this.filter = filter;
+		if (filter == null)
+		{
+			int capacity = 16;
+			while (capacity < MAX_CAPACITY && capacity < 2L * this.limit + 64)
+			{
+				capacity <<= 1;
+			}
+			this.seen = new AtomicLongArray(capacity);
+			this.mask = capacity - 1;
+			this.recent = null;
+			this.ring = null;
+			this.next = null;
+		}
+		else
+		{
+			this.seen = null;
+			this.mask = 0;
+			this.recent = ConcurrentHashMap.newKeySet();
+			this.ring = new AtomicLongArray(RECENT);
+			this.next = new AtomicLong();
+		}
+		this.added = new AtomicLong();
+		this.accepted = new AtomicInteger();
+	}
+
+	/**
+	 * Accepts a link if it was not seen before and the limit has not been
+	 * reached yet.
+	 *
+	 * @param link
+	 * 			link to accept
+	 * @return 1 if the link was accepted, 0 if it was already seen, or -1 if
+	 * 		the limit has been reached
+	 */
+	public int accept(String link)
+	{
+		long fingerprint = fingerprint(link);
+		if (contains(fingerprint))
+		{
+			return 0;
+		}
+		if (accepted.get() >= limit)
+		{
+			return -1;
+		}
+
+		int added = filter == null ? add(fingerprint) : addFiltered(fingerprint);
+		if (added <= 0)
+		{
+			return added;
+		}
+
+		int count;
+		do
+		{
+			count = accepted.get();
+			if (count >= limit)
+			{
+				return -1;
+			}
+		}
+		while (!accepted.compareAndSet(count, count + 1));
+		return 1;
+	}
+
+	/**
+	 * Tells whether a link was seen before.
+	 *
+	 * @param link
+	 * 			link to look for
+	 * @return true if the link was seen
+	 */
+	public boolean contains(String link)
+	{
+		return contains(fingerprint(link));
+	}
+
+	/**
+	 * Returns the number of links accepted.
+	 *
+	 * @return number of accepted links, at most the limit
+	 */
+	public int size()
+	{
+		return accepted.get();
+	}
+
+	/**
+	 * Returns the most links accepted.
+	 *
+	 * @return limit of the crawl
+	 */
+	public int limit()
+	{
+		return limit;
+	}
+
+	/**
+	 * Returns the estimated memory used to keep the seen links.
+	 *
+	 * @return number of bytes of the table, or of the filter and the recent links
+	 */
+	public long bytes()
+	{
+		if (filter == null)
+		{
+			return (long) seen.length() * Long.BYTES;
+		}
+		return filter.bytes() + (long) RECENT * Long.BYTES + (long) recent.size() * RECENT_BYTES;
+	}
+
+	/**
+	 * Estimates the chance that a new link is mistaken for a seen one, either
+	 * by the filter or by two fingerprints being the same.
+	 *
+	 * @return estimated false positive rate
+	 */
+	public double falsePositiveRate()
+	{
+		double collision = added.get() / Math.pow(2, 64);
+		return filter == null ? collision : filter.falsePositiveRate() + collision;
+	}
+
+	/**
+	 * Describes how the seen links are kept, for the crawl statistics.
+	 *
+	 * @return seen links, memory and estimated false positive rate as a line of text
+	 */
+	public String stats()
+	{
+		String kind = filter == null ? "fingerprint table" : String.format("bloom filter, %d stages, %.2g target", filter.stages(), filter.rate());
+		return String.format("%-8s %7d links %7d accepted %9.1f KB %10.3g false positive rate (%s)",
+				"seen", added.get(), size(), bytes() / 1024.0, falsePositiveRate(), kind);
+	}
+
+	/**
+	 * Looks up a fingerprint in the table.
+	 *
+	 * @param fingerprint
+	 * 			fingerprint of a link
+	 * @return true if the fingerprint is in the table
+	 */
+	private boolean contains(long fingerprint)
+	{
+		if (filter != null)
+		{
+			return recent.contains(fingerprint) || filter.contains(fingerprint);
+		}
+
+		int slot = (int) fingerprint & mask;
+		for (int probes = 0; probes <= mask; probes++)
+		{
+			long current = seen.get(slot);
+			if (current == fingerprint)
+			{
+				return true;
+			}
+			if (current == EMPTY)
+			{
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a fingerprint to the table, unless another thread added it first.
+	 *
+	 * @param fingerprint
+	 * 			fingerprint of a link
+	 * @return 1 if the fingerprint was added, 0 if it was already there, or -1
+	 * 		if the table is full
+	 */
+	private int add(long fingerprint)
+	{
+		int slot = (int) fingerprint & mask;
+		for (int probes = 0; probes <= mask; probes++)
+		{
+			long current = seen.get(slot);
+			if (current == EMPTY)
+			{
+				if (seen.compareAndSet(slot, EMPTY, fingerprint))
+				{
+					added.incrementAndGet();
+					return 1;
+				}
+				current = seen.get(slot);
+			}
+			if (current == fingerprint)
+			{
+				return 0;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a fingerprint to the recent fingerprints and to the filter, unless
+	 * another thread added it first or the filter already seems to have it.
+	 * The oldest recent fingerprint is forgotten to make room for it.
+	 *
+	 * @param fingerprint
+	 * 			fingerprint of a link
+	 * @return 1 if the fingerprint was added, or 0 if it was already there
+	 */
+	private int addFiltered(long fingerprint)
+	{
+		if (!recent.add(fingerprint))
+		{
+			return 0;
+		}
+
+		int slot = (int) (next.getAndIncrement() & (RECENT - 1));
+		long oldest = ring.getAndSet(slot, fingerprint);
+		if (oldest != EMPTY && oldest != fingerprint)
+		{
+			recent.remove(oldest);
+		}
+
+		if (!filter.add(fingerprint))
+		{
+			return 0;
+		}
+		added.incrementAndGet();
+		return 1;
+	}
+
+	/**
+	 * Computes the 64-bit fingerprint of a link: the FNV-1a hash of its
+	 * characters, mixed so that every bit of the hash depends on every
+	 * character. Zero is reserved for empty slots.
+	 *
+	 * @param link
+	 * 			link to fingerprint
+	 * @return nonzero fingerprint of the link
+	 */
+	public static long fingerprint(String link)
+	{
+		long hash = FNV_BASIS;
+		for (int i = 0; i < link.length(); i++)
+		{
+			hash ^= link.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Continues an FNV-1a hash over the remaining bytes of a buffer, so that
+	 * content read in parts can be fingerprinted the same way as a link. The
+	 * hash starts at {@link #FNV_BASIS} and is finished by {@link #mix(long)}.
+	 *
+	 * @param hash
+	 * 			hash of the bytes before
+	 * @param bytes
+	 * 			buffer whose remaining bytes are hashed and consumed
+	 * @return hash including the bytes
+	 */
+	public static long hash(long hash, ByteBuffer bytes)
+	{
+		while (bytes.hasRemaining())
+		{
+			hash ^= bytes.get() & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Mixes an FNV-1a hash into a fingerprint, so that every bit of it
+	 * depends on every character or byte hashed.
+	 *
+	 * @param hash
+	 * 			FNV-1a hash
+	 * @return nonzero fingerprint
+	 */
+	public static long mix(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == EMPTY ? 1 : hash;
+	}
+}
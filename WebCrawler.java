@@ -1,12 +1,50 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Multithreaded webcrawler that processes up to 50 webpages and stores it in the index
+ *
+ * If a number of fetchers is given, pages go through a pipeline of stages
+ * instead. Pages are fetched on their own virtual threads (or on a pool of
+ * that many threads before Java 21), at most that many at a time. Fetched
+ * pages then pass through bounded queues to the threads of the parse stage
+ * (finding links and removing HTML), the tokenize stage (building a small
+ * index of the page) and the index stage (adding batches of pages to the
+ * index). A full queue blocks the stage before it, so a slow stage slows
+ * down fetching instead of pages piling up in memory. Every stage counts its
+ * pages, busy time and largest queue depth, see {@link #stats()}.
+ *
+ * Links are accepted through a {@link URLFrontier}, which both kinds of crawl
+ * share without locking and which never accepts more links than the limit.
+ * For very large crawls the frontier can keep its seen links in a Bloom
+ * filter, see {@link #setSeenFilter(long, double)}.
+ *
+ * Both kinds of crawl hand pages to be fetched to a {@link HostScheduler},
+ * which takes turns between hosts so that the links of one page do not all
+ * go to the same host at once, and which sends pages closer to the seed
+ * first so that the crawl stays breadth-first. It sends at most a limited
+ * number of requests at once to each host, and can wait a minimum delay
+ * between requests to the same host, see {@link #setDelay(long)}. A host that
+ * has to wait does not hold up a fetcher or a worker thread, which fetch
+ * pages of other hosts in the meantime.
+ *
+ * Given the {@link CrawlState} of an earlier crawl, pages the earlier crawl
+ * saw are fetched with a conditional request, and pages that did not change
+ * are neither parsed nor indexed again: the crawl starts from the saved
+ * index, and only the saved links of those pages are followed, see
+ * {@link #setState(CrawlState)}.
  * @author BennyFung
  *
  */
@@ -15,9 +53,59 @@ public class WebCrawler
 	private WorkQueue queue;
 	private ThreadedInvertedIndex index;
 	private static final Logger logger = LogManager.getLogger();
-	private final ReadWriteLock lock;
-	private final HashSet<String> links;
-	private int LIMIT;
+	
+	/** Links seen by the last crawl. */
+	private URLFrontier frontier;
+	
+	/** Hands pages to the work queue or the fetchers host by host. */
+	private HostScheduler scheduler;
+	
+	/** Most pages fetched at once, or 0 to fetch on the work queue. */
+	private final int fetchers;
+	
+	/** Most pages fetched at once from the same host. */
+	private final int perHost;
+	
+	/** Default of the most pages fetched at once from the same host. */
+	public static final int PER_HOST = 8;
+	
+	/** Least nanoseconds between the starts of two requests to the same host. */
+	private long delay;
+	
+	/** Number of pages accepted but not fetched and indexed yet. */
+	private final AtomicInteger pending;
+	
+	/** Notified when there are no more pending pages. */
+	private final Object finished;
+	
+	/** Number of threads of the parse, tokenize and index stages. */
+	private int parsers;
+	private int tokenizers;
+	private int indexers;
+	
+	/** Number of links the Bloom filter of the seen links is sized for, or 0 for none. */
+	private long expected;
+	
+	/** False positive rate of the Bloom filter of the seen links. */
+	private double rate;
+	
+	/** State of the earlier crawl to re-crawl, or null to crawl every page as new. */
+	private CrawlState state;
+	
+	/** Stages of the last pipelined crawl, or null. */
+	private Stage fetching;
+	private Stage parsing;
+	private Stage tokenizing;
+	private Stage indexing;
+	
+	/** Duration of the last pipelined crawl in nanoseconds. */
+	private long elapsed;
+	
+	/** Capacity of the queues between stages. */
+	private static final int QUEUE_SIZE = 64;
+	
+	/** Most pages added to the index at once by the index stage. */
+	private static final int BATCH_SIZE = 16;
 	
 	/**
 	 * Initialize index and work queue
@@ -26,11 +114,96 @@ public class WebCrawler
 	 */
 	public WebCrawler(ThreadedInvertedIndex index, WorkQueue queue)
 	{
-		lock = new ReadWriteLock();
+		this(index, queue, 0, PER_HOST);
+	}
+	
+	/**
+	 * Initialize index and work queue, fetching pages apart from the work queue
+	 * if a number of fetchers is given.
+	 * @param index
+	 * 			index to add the pages to
+	 * @param queue
+	 * 			work queue that parses and indexes the pages
+	 * @param fetchers
+	 * 			most pages fetched at once, or 0 to fetch on the work queue
+	 * @param perHost
+	 * 			most pages fetched at once from the same host
+	 */
+	public WebCrawler(ThreadedInvertedIndex index, WorkQueue queue, int fetchers, int perHost)
+	{
 		this.index = index;
 		this.queue = queue;
-		this.links = new HashSet<>();
-		this.LIMIT = 0;
+		this.frontier = new URLFrontier(0);
+		this.fetchers = Math.max(0, fetchers);
+		this.perHost = Math.max(1, perHost);
+		this.delay = 0;
+		this.pending = new AtomicInteger();
+		this.finished = new Object();
+		this.parsers = 2;
+		this.tokenizers = 2;
+		this.indexers = 1;
+		this.expected = 0;
+		this.rate = 0.01;
+	}
+	
+	/**
+	 * Sets the number of threads of the stages after fetching.
+	 * @param parsers
+	 * 			threads finding links and removing HTML
+	 * @param tokenizers
+	 * 			threads parsing the words of pages
+	 * @param indexers
+	 * 			threads adding pages to the index
+	 */
+	public void setStageThreads(int parsers, int tokenizers, int indexers)
+	{
+		this.parsers = Math.max(1, parsers);
+		this.tokenizers = Math.max(1, tokenizers);
+		this.indexers = Math.max(1, indexers);
+	}
+	
+	/**
+	 * Sets the least time between the starts of two requests to the same host,
+	 * so that crawls do not get throttled by the servers they crawl.
+	 * @param millis
+	 * 			least milliseconds between requests to the same host, or 0
+	 */
+	public void setDelay(long millis)
+	{
+		this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+	}
+	
+	/**
+	 * Keeps the seen links of the next crawls in a scalable Bloom filter
+	 * instead of a table of their fingerprints, which takes a few bits per
+	 * link instead of 16 or more bytes, but may skip a new link now and then.
+	 * @param expected
+	 * 			number of links the filter is sized for at first, or 0 to use a table
+	 * @param rate
+	 * 			overall false positive rate of the filter, between 0 and 1, or
+	 * 			anything else for 1%
+	 */
+	public void setSeenFilter(long expected, double rate)
+	{
+		if (!(rate > 0 && rate < 1))
+		{
+			logger.debug("Invalid false positive rate " + rate + ", using 0.01");
+			rate = 0.01;
+		}
+		this.expected = Math.max(0, expected);
+		this.rate = rate;
+	}
+	
+	/**
+	 * Re-crawls the pages of an earlier crawl, fetching and indexing only the
+	 * pages that changed since. The state records the pages of the next crawl
+	 * as well, and can be saved along with the index afterwards.
+	 * @param state
+	 * 			state of the earlier crawl, or null to crawl every page as new
+	 */
+	public void setState(CrawlState state)
+	{
+		this.state = state;
 	}
 	
 	/**
@@ -41,21 +214,328 @@ public class WebCrawler
 	 */
 	public void crawler(URL url, int limit) throws MalformedURLException 
 	{
-		LIMIT = limit;
+		frontier = new URLFrontier(limit, expected > 0 ? new BloomFilter(expected, rate) : null);
+		if (state != null)
+		{
+			state.restore(index);
+		}
+		
+		if (fetchers > 0)
+		{
+			fetchAll(url);
+		}
+		else
+		{
+			scheduler = new HostScheduler(queue, perHost, TimeUnit.NANOSECONDS.toMillis(delay));
+			if (frontier.accept(url.toString()) > 0)
+			{
+				scheduler.submit(url.getHost(), 0, new CrawlWorker(url, index, 0));
+			}
+			
+			scheduler.finish();
+			scheduler.shutdown();
+			queue.finish();
+			logger.debug("links: " + frontier.size());
+		}
+		LinkParser.closeConnections();
+		
+		if (state != null)
+		{
+			state.finish();
+		}
+	}
+	
+	/**
+	 * Crawls from the seed through the pipeline of stages, and waits until
+	 * every accepted page is done.
+	 * @param seed
+	 * 			first page to crawl
+	 */
+	private void fetchAll(URL seed)
+	{
+		long start = System.nanoTime();
+		fetching = new Stage("fetch", fetchers, 0, 1, null);
+		parsing = new Stage("parse", parsers, QUEUE_SIZE, 1, this::parse);
+		tokenizing = new Stage("tokenize", tokenizers, QUEUE_SIZE, 1, this::tokenize);
+		indexing = new Stage("index", indexers, QUEUE_SIZE, BATCH_SIZE, this::addPages);
 		
-		if (!links.contains(url))
+		ExecutorService executor = fetchExecutor(fetchers);
+		scheduler = new HostScheduler(executor, perHost, TimeUnit.NANOSECONDS.toMillis(delay), fetchers);
+		Stage[] stages = { parsing, tokenizing, indexing };
+		for (Stage stage : stages)
 		{
-			links.add(url.toString());
-			queue.execute(new CrawlWorker(url, index, links));
+			stage.start();
 		}
 		
-		logger.debug("links: " + links);
+		try
+		{
+			if (frontier.accept(seed.toString()) > 0)
+			{
+				fetch(executor, seed, 0);
+			}
+			
+			synchronized (finished)
+			{
+				while (pending.get() > 0)
+				{
+					finished.wait();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			logger.debug("Crawl interrupted" + e);
+		}
+		finally
+		{
+			scheduler.shutdown();
+			executor.shutdown();
+			for (Stage stage : stages)
+			{
+				stage.stop();
+			}
+		}
 		queue.finish();
+		elapsed = System.nanoTime() - start;
+		logger.debug("links: " + frontier.size());
+		logger.debug(stats());
+	}
+	
+	/**
+	 * Returns the counters of every stage of the last pipelined crawl: the
+	 * pages it finished, the share of its threads' time spent working on them,
+	 * its pages per second of work per thread, and the largest number of pages
+	 * that waited for it. A stage whose threads are always busy and whose queue
+	 * stays full needs more threads.
+	 *
+	 * The next line describes the seen links of the last crawl: how many were
+	 * kept, the memory they take and the estimated false positive rate. A
+	 * re-crawl adds a last line with the number of unchanged, changed and new
+	 * pages.
+	 * @return one line per stage if the last crawl was pipelined, then the seen
+	 * 			links and the re-crawled pages
+	 */
+	public String stats()
+	{
+		StringBuilder builder = new StringBuilder();
+		if (fetching != null)
+		{
+			for (Stage stage : new Stage[] { fetching, parsing, tokenizing, indexing })
+			{
+				builder.append(stage.stats(elapsed)).append(System.lineSeparator());
+			}
+		}
+		builder.append(frontier.stats()).append(System.lineSeparator());
+		if (state != null)
+		{
+			builder.append(state.stats()).append(System.lineSeparator());
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Creates the executor pages are fetched on. Every fetch gets its own
+	 * virtual thread if the runtime has them, and otherwise runs on a pool with
+	 * one thread per fetcher.
+	 * @param fetchers
+	 * 			most pages fetched at once
+	 * @return executor to fetch pages on
+	 */
+	private static ExecutorService fetchExecutor(int fetchers)
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			logger.debug("Virtual threads are not available, using " + fetchers + " fetcher threads");
+			return Executors.newFixedThreadPool(fetchers, runnable ->
+			{
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	/**
+	 * Indicates that a pending page is done, and notifies the crawl once no
+	 * more pages are pending.
+	 */
+	private void done()
+	{
+		if (pending.decrementAndGet() <= 0)
+		{
+			synchronized (finished)
+			{
+				finished.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Counts an accepted page as pending and hands a task fetching it to the
+	 * scheduler, which runs it on the fetchers once its host has room for it.
+	 * @param executor
+	 * 			executor to fetch on
+	 * @param url
+	 * 			page to fetch
+	 * @param depth
+	 * 			number of links between the seed and the page
+	 */
+	private void fetch(ExecutorService executor, URL url, int depth)
+	{
+		pending.incrementAndGet();
+		fetching.waiting(1);
+		scheduler.submit(url.getHost(), depth, new FetchTask(executor, url, depth));
+	}
+	
+	/**
+	 * Fetches a page, with a conditional request if there is an earlier crawl
+	 * to re-crawl, and records it in the crawl state.
+	 * @param executor
+	 * 			executor the links of the page are fetched on
+	 * @param url
+	 * 			page to fetch
+	 * @param depth
+	 * 			number of links between the seed and the page
+	 * @return fetched page, whose HTML is null if there is none or the page is unchanged
+	 */
+	private Page fetchPage(ExecutorService executor, URL url, int depth)
+	{
+		if (state == null)
+		{
+			return new Page(executor, url, depth, LinkParser.fetchHTML(url));
+		}
+		
+		Map<String, String> response = new HashMap<>();
+		String html = LinkParser.fetchHTML(url, state.request(url.toString()), response);
+		Page page = new Page(executor, url, depth, html);
+		page.entry = state.fetched(url.toString(), response, html);
+		if (page.entry != null && page.entry.unchanged())
+		{
+			page.html = null;
+		}
+		return page;
+	}
+	
+	/**
+	 * Parse stage: fetches the new links of a page and removes its HTML.
+	 * Unchanged pages are done once their saved links are fetched.
+	 * @param pages
+	 * 			page to parse
+	 * @throws InterruptedException
+	 */
+	private void parse(ArrayList<Page> pages) throws InterruptedException
+	{
+		for (Page page : pages)
+		{
+			if (page.entry != null && page.entry.unchanged())
+			{
+				follow(page, page.entry.links());
+				done();
+				continue;
+			}
+			
+			ArrayList<String> links = LinkParser.listLinks(page.url, page.html);
+			if (page.entry != null)
+			{
+				page.entry.links(links);
+			}
+			follow(page, links);
+			page.cleaned = HTMLCleaner.stripHTML(page.html);
+			page.html = null;
+			tokenizing.put(page);
+		}
+	}
+	
+	/**
+	 * Fetches the links of a page that were not seen before.
+	 * @param page
+	 * 			page the links were found on
+	 * @param links
+	 * 			links of the page
+	 */
+	private void follow(Page page, List<String> links)
+	{
+		for (String link : links)
+		{
+			int accepted = frontier.accept(link);
+			if (accepted < 0)
+			{
+				break;
+			}
+			if (accepted > 0)
+			{
+				try
+				{
+					fetch(page.executor, new URL(link), page.depth + 1);
+				}
+				catch (MalformedURLException e)
+				{
+					logger.debug(e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tokenize stage: parses the words of a page into a small index.
+	 * @param pages
+	 * 			page to tokenize
+	 * @throws InterruptedException
+	 */
+	private void tokenize(ArrayList<Page> pages) throws InterruptedException
+	{
+		for (Page page : pages)
+		{
+			page.local = new InvertedIndex(index.documents());
+			page.local.addText(page.cleaned, index.documents().add(page.url.toString()));
+			page.cleaned = null;
+			indexing.put(page);
+		}
+	}
+	
+	/**
+	 * Index stage: adds a batch of pages to the index at once.
+	 * @param pages
+	 * 			pages to add
+	 */
+	private void addPages(ArrayList<Page> pages)
+	{
+		InvertedIndex batch = pages.get(0).local;
+		for (int i = 1; i < pages.size(); i++)
+		{
+			batch.addAll(pages.get(i).local);
+		}
+		index.addAll(batch);
+		for (int i = 0; i < pages.size(); i++)
+		{
+			done();
+		}
+	}
+	
+	/**
+	 * Cleans and parses HTML to words and adds them to the index.
+	 * @param url
+	 * 			url of the page
+	 * @param html
+	 * 			html of the page
+	 */
+	private void addPage(URL url, String html)
+	{
+		String cleaned = HTMLCleaner.stripHTML(html);
+		InvertedIndex local = new InvertedIndex(index.documents());
+		int document = index.documents().add(url.toString());
+		local.addText(cleaned, document);
+		index.addAll(local);
 	}
 	
 	/**
 	 * Crawl task that gets all links, creates task if there is a unique link and if it's under the limit
-	 * and cleans/parses HTML to words and adds to index
+	 * and cleans/parses HTML to words and adds to index. Pages unchanged since
+	 * the earlier crawl only have their saved links followed.
 	 * @author BennyFung
 	 *
 	 */
@@ -63,34 +543,43 @@ public class WebCrawler
 	{
 		private URL url;
 		private ThreadedInvertedIndex index;
-		private HashSet<String> links;
+		private int depth;
 		
-		private CrawlWorker(URL url, ThreadedInvertedIndex index, HashSet<String> links)
+		private CrawlWorker(URL url, ThreadedInvertedIndex index, int depth)
 		{
 			this.url = url;
 			this.index = index;
-			this.links = links;
+			this.depth = depth;
 		}
 		
 		@Override
 		public void run()
 		{
-			String html = LinkParser.fetchHTML(url);
+			Page page = fetchPage(null, url, depth);
+			boolean unchanged = page.entry != null && page.entry.unchanged();
+			if (!unchanged && page.html == null)
+			{
+				// failed fetches and pages that are not HTML have nothing to follow or index
+				return;
+			}
 			try 
 			{
-				ArrayList<String> listOfLinks = LinkParser.listLinks(url, html);
+				List<String> listOfLinks = unchanged ? page.entry.links() : LinkParser.listLinks(url, page.html);
+				if (page.entry != null && !unchanged)
+				{
+					page.entry.links(listOfLinks);
+				}
 				for (String link : listOfLinks)
 				{
-					if (!links.contains(link))
+					int accepted = frontier.accept(link);
+					if (accepted < 0)
+					{
+						break;
+					}
+					if (accepted > 0)
 					{
-						if (links.size() >= LIMIT)
-						{
-							break;
-						}
-						logger.debug("size: " + links.size());
-						links.add(link);
 						URL url = new URL(link);
-						queue.execute(new CrawlWorker(url, index, links));
+						scheduler.submit(url.getHost(), depth + 1, new CrawlWorker(url, index, depth + 1));
 					}
 				}
 			}
@@ -99,17 +588,256 @@ public class WebCrawler
 				logger.debug(e.getMessage());
 			}
 
-			String cleaned = HTMLCleaner.stripHTML(html);
-			String[] words = WordParser.parseWords(cleaned);
-			InvertedIndex local = new InvertedIndex();
-			int position = 1;
-			
-			for (String word : words)
+			if (!unchanged)
+			{
+				addPage(url, page.html);
+			}
+		}
+	}
+	
+	/**
+	 * Fetch task that downloads a page once the scheduler runs it, then hands
+	 * the page to the parse stage.
+	 */
+	private class FetchTask implements Runnable
+	{
+		private final ExecutorService executor;
+		private final URL url;
+		private final int depth;
+		
+		private FetchTask(ExecutorService executor, URL url, int depth)
+		{
+			this.executor = executor;
+			this.url = url;
+			this.depth = depth;
+		}
+		
+		@Override
+		public void run()
+		{
+			fetching.waiting(-1);
+			try
+			{
+				Page page;
+				long start = System.nanoTime();
+				try
+				{
+					page = fetchPage(executor, url, depth);
+				}
+				finally
+				{
+					fetching.count(System.nanoTime() - start);
+				}
+				
+				if (page.html != null || page.entry != null)
+				{
+					parsing.put(page);
+					return;
+				}
+			}
+			catch (InterruptedException | RuntimeException e)
 			{
-				local.add(word, url.toString(), position);
-				position++;
+				logger.debug("Unable to fetch " + url + ": " + e);
 			}
-			index.addAll(local);
+			done();
+		}
+	}
+	
+	/**
+	 * Page passed from stage to stage, keeping only what the next stage needs.
+	 */
+	private static class Page
+	{
+		private final ExecutorService executor;
+		private final URL url;
+		private final int depth;
+		private String html;
+		private String cleaned;
+		private InvertedIndex local;
+		private CrawlState.Entry entry;
+		
+		private Page(ExecutorService executor, URL url, int depth, String html)
+		{
+			this.executor = executor;
+			this.url = url;
+			this.depth = depth;
+			this.html = html;
+		}
+	}
+	
+	/**
+	 * Work done by a stage on the pages it takes from its queue.
+	 */
+	private interface Work
+	{
+		void process(ArrayList<Page> pages) throws InterruptedException;
+	}
+	
+	/**
+	 * Stage of the pipeline with its own threads taking pages from a bounded
+	 * queue, along with its counters. Fetching is counted as a stage as well,
+	 * but runs on the fetchers rather than on threads of its own.
+	 */
+	private class Stage
+	{
+		private final String name;
+		private final int size;
+		private final int batch;
+		private final Work work;
+		private final ArrayBlockingQueue<Page> pages;
+		private final Thread[] threads;
+		
+		private final AtomicLong processed;
+		private final AtomicLong busy;
+		private final AtomicInteger depth;
+		private final AtomicInteger deepest;
+		
+		/**
+		 * Creates a stage without starting its threads.
+		 * @param name
+		 * 			name shown in the counters
+		 * @param size
+		 * 			number of threads
+		 * @param capacity
+		 * 			capacity of the queue, or 0 if the stage has no queue
+		 * @param batch
+		 * 			most pages processed at once
+		 * @param work
+		 * 			work done on the pages, or null if the stage has no threads
+		 */
+		private Stage(String name, int size, int capacity, int batch, Work work)
+		{
+			this.name = name;
+			this.size = size;
+			this.batch = batch;
+			this.work = work;
+			this.pages = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : null;
+			this.threads = new Thread[work == null ? 0 : size];
+			this.processed = new AtomicLong();
+			this.busy = new AtomicLong();
+			this.depth = new AtomicInteger();
+			this.deepest = new AtomicInteger();
+		}
+		
+		/**
+		 * Starts the threads of the stage.
+		 */
+		public void start()
+		{
+			for (int i = 0; i < threads.length; i++)
+			{
+				threads[i] = new Thread(this::run, name + "-" + i);
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+		}
+		
+		/**
+		 * Stops the threads of the stage once its queue is empty and waits for
+		 * them to exit.
+		 */
+		public void stop()
+		{
+			for (Thread thread : threads)
+			{
+				thread.interrupt();
+			}
+			for (Thread thread : threads)
+			{
+				try
+				{
+					thread.join();
+				}
+				catch (InterruptedException e)
+				{
+					logger.debug("Stage " + name + " interrupted" + e);
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		
+		/**
+		 * Adds a page to the queue of the stage, waiting while it is full.
+		 * @param page
+		 * 			page to add
+		 * @throws InterruptedException
+		 */
+		public void put(Page page) throws InterruptedException
+		{
+			pages.put(page);
+			deepest.accumulateAndGet(pages.size(), Math::max);
+		}
+		
+		/**
+		 * Counts pages waiting for a stage without a queue.
+		 * @param change
+		 * 			number of pages added to (or removed from) the wait
+		 */
+		public void waiting(int change)
+		{
+			deepest.accumulateAndGet(depth.addAndGet(change), Math::max);
+		}
+		
+		/**
+		 * Counts a finished page.
+		 * @param nanos
+		 * 			time spent on the page
+		 */
+		public void count(long nanos)
+		{
+			processed.incrementAndGet();
+			busy.addAndGet(nanos);
+		}
+		
+		/**
+		 * Takes pages from the queue and processes them until stopped.
+		 */
+		private void run()
+		{
+			ArrayList<Page> taken = new ArrayList<>(batch);
+			while (true)
+			{
+				try
+				{
+					taken.add(pages.take());
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				pages.drainTo(taken, batch - 1);
+				
+				long start = System.nanoTime();
+				try
+				{
+					work.process(taken);
+				}
+				catch (InterruptedException | RuntimeException e)
+				{
+					logger.debug("Stage " + name + " failed on " + taken.size() + " pages: " + e);
+					for (int i = 0; i < taken.size(); i++)
+					{
+						done();
+					}
+				}
+				busy.addAndGet(System.nanoTime() - start);
+				processed.addAndGet(taken.size());
+				taken.clear();
+			}
+		}
+		
+		/**
+		 * Returns the counters of the stage.
+		 * @param elapsed
+		 * 			duration of the crawl in nanoseconds
+		 * @return counters as a line of text
+		 */
+		public String stats(long elapsed)
+		{
+			double seconds = busy.get() / 1e9;
+			double utilization = elapsed > 0 ? 100.0 * busy.get() / ((double) elapsed * size) : 0;
+			return String.format("%-8s %3d threads %7d pages %5.1f%% busy %8.1f pages/s per thread %5d most waiting",
+					name, size, processed.get(), utilization, seconds > 0 ? processed.get() / seconds : 0, deepest.get());
 		}
 	}
 }
\ No newline at end of file
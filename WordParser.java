@@ -1,6 +1,8 @@
 import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.TreeSet;
+import java.util.function.ObjIntConsumer;
 import java.util.regex.Pattern;
 
 /**
@@ -70,6 +72,166 @@ public class WordParser
 		return split(clean(line));
 	}
 	
+	/**
+	 * Cleans and splits the text in a single pass, passing each word and its
+	 * position to the sink instead of creating cleaned copies of the text and
+	 * an array of words. The words and positions are the same as the elements
+	 * and indices (plus one) of {@link #parseWords(String)}, including the empty
+	 * first word it returns when the trimmed text starts with a non-ASCII space
+	 * such as a non-breaking space. The text is only normalized if it is not
+	 * already in NFC form, and words are only lowercased if they need to be.
+	 * Text with a capital sigma is parsed by {@link #parseWords(String)}, since
+	 * whether it becomes a final sigma depends on the text around the word.
+	 *
+	 * @param text
+	 *            text to clean and split
+	 * @param sink
+	 *            accepts each word and its position, starting at 1
+	 * @return number of words found
+	 */
+	public static int parseWords(String text, ObjIntConsumer<String> sink)
+	{
+		if (!isASCII(text) && !Normalizer.isNormalized(text, Normalizer.Form.NFC))
+		{
+			text = Normalizer.normalize(text, Normalizer.Form.NFC);
+		}
+
+		if (text.indexOf('\u03A3') >= 0)
+		{
+			// the final form of a capital sigma depends on the whole text
+			String[] words = parseWords(text);
+			for (int i = 0; i < words.length; i++)
+			{
+				sink.accept(words[i], i + 1);
+			}
+			return words.length;
+		}
+
+		int length = text.length();
+		int position = 0;
+		boolean started = false;
+		boolean empty = false;
+
+		int start = -1;
+		boolean lower = true;
+		int i = 0;
+		while (i < length)
+		{
+			char c = text.charAt(i);
+			int next = i + 1;
+			boolean alpha;
+			boolean space = false;
+
+			if (c < 0x80)
+			{
+				alpha = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+				if (c >= 'A' && c <= 'Z')
+				{
+					lower = false;
+				}
+			}
+			else
+			{
+				int point = text.codePointAt(i);
+				next = i + Character.charCount(point);
+				alpha = Character.isAlphabetic(point);
+				space = !alpha && isSpace(point);
+				lower = lower && !alpha;
+			}
+
+			if (alpha)
+			{
+				if (start < 0)
+				{
+					start = i;
+					started = true;
+				}
+			}
+			else
+			{
+				if (start >= 0)
+				{
+					if (empty)
+					{
+						sink.accept("", ++position);
+						empty = false;
+					}
+					sink.accept(word(text, start, i, lower), ++position);
+					start = -1;
+				}
+				else if (space && !started)
+				{
+					started = true;
+					empty = true;
+				}
+				lower = true;
+			}
+			i = next;
+		}
+
+		if (start >= 0)
+		{
+			if (empty)
+			{
+				sink.accept("", ++position);
+			}
+			sink.accept(word(text, start, length, lower), ++position);
+		}
+		return position;
+	}
+
+	/**
+	 * Returns a word of the text in lowercase.
+	 *
+	 * @param text
+	 *            text containing the word
+	 * @param start
+	 *            index of the first character of the word
+	 * @param end
+	 *            index after the last character of the word
+	 * @param lower
+	 *            whether the word is known to be lowercase ASCII already
+	 * @return lowercase word
+	 */
+	private static String word(String text, int start, int end, boolean lower)
+	{
+		String word = text.substring(start, end);
+		return lower ? word : word.toLowerCase();
+	}
+
+	/**
+	 * Tests whether the text only contains ASCII characters.
+	 *
+	 * @param text
+	 *            text to test
+	 * @return true if every character is ASCII
+	 */
+	private static boolean isASCII(String text)
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			if (text.charAt(i) >= 0x80)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests whether the code point is matched by "<code>(?U)\p{Space}</code>".
+	 *
+	 * @param point
+	 *            code point to test
+	 * @return true if the code point is white space
+	 */
+	private static boolean isSpace(int point)
+	{
+		int type = Character.getType(point);
+		return type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR || type == Character.PARAGRAPH_SEPARATOR
+				|| (point >= 0x9 && point <= 0xD) || point == 0x85;
+	}
+
 	/**
 	 * Convenience method for cleaning and splitting text, and returning only
 	 * only the unique words found as a sorted set.
@@ -86,4 +248,22 @@ public class WordParser
 		Collections.addAll(words, parseWords(text));
 		return words;
 	}
+
+	/**
+	 * Convenience method for cleaning and splitting a query, returning its
+	 * words (including repeated words) in sorted order.
+	 *
+	 * @param text
+	 *            to clean, split, and sort
+	 * @return sorted array of words
+	 *
+	 * @see #parseWords(String, ObjIntConsumer)
+	 */
+	public static String[] sortedWords(String text)
+	{
+		ArrayList<String> words = new ArrayList<>();
+		parseWords(text, (word, position) -> words.add(word));
+		Collections.sort(words);
+		return words.toArray(new String[words.size()]);
+	}
 }
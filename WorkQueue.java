@@ -47,6 +47,21 @@ public class WorkQueue
 	 *            number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads)
+	{
+		this(threads, true);
+	}
+
+	/**
+	 * Creates a work queue for the specified number of threads, only starting
+	 * the worker threads if asked to. Subclasses that run work some other way
+	 * override every public method except {@link #size()}.
+	 *
+	 * @param threads
+	 *            number of worker threads
+	 * @param start
+	 *            whether to start the worker threads of this class
+	 */
+	protected WorkQueue(int threads, boolean start)
 	{
 		
 		this.queue = new LinkedList<Runnable>();
@@ -55,7 +70,7 @@ public class WorkQueue
 		this.pending = 0;
 
 		// start the threads so they are waiting in the background
-		for (int i = 0; i < threads; i++)
+		for (int i = 0; start && i < threads; i++)
 		{
 			workers[i] = new PoolWorker();
 			workers[i].start();